@@ -1,335 +1,228 @@
 package net.coderbot.patchwork;
 
-import net.coderbot.patchwork.access.AccessTransformation;
-import net.coderbot.patchwork.access.AccessTransformations;
-import net.coderbot.patchwork.access.AccessTransformer;
-import net.coderbot.patchwork.annotation.AnnotationProcessor;
-import net.coderbot.patchwork.event.EventBusSubscriber;
-import net.coderbot.patchwork.event.EventHandlerScanner;
-import net.coderbot.patchwork.event.SubscribeEvent;
-import net.coderbot.patchwork.event.generator.StaticEventRegistrarGenerator;
-import net.coderbot.patchwork.event.generator.SubscribeEventGenerator;
-import net.coderbot.patchwork.manifest.converter.ModManifestConverter;
-import net.coderbot.patchwork.manifest.forge.ModManifest;
+import net.coderbot.patchwork.cache.ClassCache;
+import net.coderbot.patchwork.cache.Hashing;
+import net.coderbot.patchwork.cache.ModCache;
+import net.coderbot.patchwork.hierarchy.HierarchyIndex;
 import net.coderbot.patchwork.mapping.*;
-import net.coderbot.patchwork.objectholder.*;
+import net.coderbot.patchwork.objectholder.RegistryResolver;
+import net.coderbot.patchwork.pipeline.ModPipeline;
+import net.coderbot.patchwork.pipeline.TimingReport;
+import net.coderbot.patchwork.tasking.ResourcePool;
+import net.coderbot.patchwork.tasking.TaskScheduler;
 
 import java.io.*;
-import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
-
-import com.electronwill.nightconfig.core.file.FileConfig;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import java.util.concurrent.CountDownLatch;
+
 import net.fabricmc.mappings.Mappings;
 import net.fabricmc.mappings.MappingsProvider;
-import net.fabricmc.tinyremapper.*;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.commons.Remapper;
 
 public class Patchwork {
-	public static void main(String[] args) throws Exception {
-		Mappings intermediary = MappingsProvider.readTinyMappings(
-				new FileInputStream(new File("data/mappings/intermediary-1.14.4.tiny")));
-		List<TsrgClass<RawMapping>> classes = Tsrg.readMappings(
-				new FileInputStream(new File("data/mappings/voldemap-1.14.4.tsrg")));
-
-		IMappingProvider intermediaryMappings = TinyUtils.createTinyMappingProvider(
-				Paths.get("data/mappings/intermediary-1.14.4.tiny"), "official", "intermediary");
-
-		TsrgMappings mappings = new TsrgMappings(classes, intermediary, "official");
-		String tiny = mappings.writeTiny("srg");
-
-		Files.write(Paths.get("data/mappings/voldemap-1.14.4.tiny"),
-				tiny.getBytes(StandardCharsets.UTF_8));
-
-		Files.createDirectories(Paths.get("input"));
-		Files.createDirectories(Paths.get("temp"));
-		Files.createDirectories(Paths.get("output"));
-
-		// This takes a long time, so we skip it.
-		//
-		// System.out.println("Remapping Minecraft (official -> srg)");
-		// remap(mappings, Paths.get("data/1.14.4+official.jar"), Paths.get("data/1.14.4+srg.jar"));
-
-		Files.walk(Paths.get("input")).forEach(file -> {
-			if(!file.toString().endsWith(".jar")) {
-				return;
-			}
-
-			String modName = file.toString().replaceAll("input/", "").replaceAll(".jar", "");
-
-			System.out.println("=== Transforming " + modName + " ===");
-
-			try {
-				transformMod(modName, mappings, intermediaryMappings);
-			} catch(Exception e) {
-				System.err.println("Transformation failed, going on to next mod: ");
-
-				e.printStackTrace();
-			}
-		});
-	}
+	/**
+	 * The version of Patchwork as set in build.gradle, part of the cache keys so that an update
+	 * never reuses jars patched by an older version.
+	 */
+	public static final String VERSION = readVersion();
 
-	public static void transformMod(String mod,
-			TsrgMappings mappings,
-			IMappingProvider intermediaryMappings) throws Exception {
-		System.out.println("Remapping " + mod + " (srg -> official)");
-		remap(new InvertedTsrgMappings(mappings),
-				Paths.get("input/" + mod + ".jar"),
-				Paths.get("temp/" + mod + "+official.jar"),
-				Paths.get("data/1.14.4+srg.jar"));
-
-		System.out.println("Remapping " + mod + " (official -> intermediary)");
-		remap(intermediaryMappings,
-				Paths.get("temp/" + mod + "+official.jar"),
-				Paths.get("temp/" + mod + "+intermediary.jar"),
-				Paths.get("data/1.14.4+official.jar"));
-
-		// Now scan for annotations, strip them, and replace them with pointers.
-
-		Path input = Paths.get("temp/" + mod + "+intermediary.jar");
-		Path output = Paths.get("output/" + mod + ".jar");
-
-		URI uri = new URI("jar:" + input.toUri().toString());
-		FileSystem fs = null;
-		boolean shouldClose = false;
+	public static void main(String[] args) throws Exception {
+		TaskScheduler scheduler = new TaskScheduler(Runtime.getRuntime().availableProcessors());
+		scheduler.start();
 
 		try {
-			fs = FileSystems.getFileSystem(uri);
-		} catch(FileSystemNotFoundException e) {
-		}
+			TimingReport timings = new TimingReport();
+			patchAll(scheduler, getDefaultMemoryBudget(), timings);
 
-		if(fs == null) {
-			fs = FileSystems.newFileSystem(uri, Collections.emptyMap());
-			shouldClose = true;
+			System.out.println("Time spent on the batch:");
+			timings.getBatch().print(System.out);
+		} finally {
+			scheduler.shutdown();
 		}
+	}
 
-		OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build();
-		outputConsumer.addNonClassFiles(input);
-
-		List<Map.Entry<String, ObjectHolder>> generatedObjectHolderEntries =
-				new ArrayList<>(); // shimName -> ObjectHolder
-		List<Map.Entry<String, String>> staticEventRegistrars =
-				new ArrayList<>(); // shimName -> baseName
-		List<Map.Entry<String, EventBusSubscriber>> eventBusSubscribers =
-				new ArrayList<>(); // basename -> EventBusSubscriber
-
-		AtomicReference<String> modName = new AtomicReference<>();
-
-		Files.walkFileTree(fs.getPath("/"), new SimpleFileVisitor<Path>() {
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-					throws IOException {
-				String name = file.toString();
-
-				if(name.endsWith(".class")) {
-					String baseName = name.substring(0, name.length() - ".class".length());
-					byte[] content = Files.readAllBytes(file);
-
-					ClassReader reader = new ClassReader(content);
-					ClassNode node = new ClassNode();
-
-					List<ObjectHolder> objectHolders = new ArrayList<>();
-					List<SubscribeEvent> subscribeEvents = new ArrayList<>();
-
-					AccessTransformations accessTransformations = new AccessTransformations();
-
-					Consumer<String> modConsumer = modId -> {
-						System.out.println("Class " + baseName + " has @Mod annotation: " + modId);
-
-						modName.set(baseName);
-					};
-
-					AnnotationProcessor scanner = new AnnotationProcessor(node, modConsumer);
-					ObjectHolderScanner objectHolderScanner =
-							new ObjectHolderScanner(scanner, holder -> {
-								objectHolders.add(holder);
-
-								accessTransformations.addFieldTransformation(
-										holder.getField(), AccessTransformation.DEFINALIZE);
-							});
-
-					EventHandlerScanner eventHandlerScanner = new EventHandlerScanner(
-							objectHolderScanner,
-							subscriber
-							-> {
-								// System.out.println(subscriber);
-
-								eventBusSubscribers.add(new AbstractMap.SimpleImmutableEntry<>(
-										baseName, subscriber));
-							},
-							subscribeEvent -> {
-								// System.out.println(subscribeEvent);
-
-								subscribeEvents.add(subscribeEvent);
-
-								accessTransformations.setClassTransformation(
-										AccessTransformation.MAKE_PUBLIC);
+	/**
+	 * Patches all mods in the input directory concurrently and waits until every one of them has
+	 * either been patched or failed.
+	 *
+	 * @param scheduler The started scheduler to run the mod pipelines on
+	 * @param memoryBudget The memory in bytes the mods being patched at the same time may take up,
+	 *        further mods wait until earlier ones are done
+	 * @param timings Where to record how long each stage takes, for the batch and for every mod
+	 */
+	public static void patchAll(TaskScheduler scheduler, long memoryBudget, TimingReport timings)
+			throws Exception {
+		TimingReport.Stages batch = timings.getBatch();
+		long start = System.nanoTime();
+
+		// Everything that affects the patched jars apart from the mod jars themselves, shared by
+		// the compiled mappings, the caches and the Minecraft hierarchy. The files are only hashed
+		// again once their size or modification time changes.
+		byte[] fingerprint = Hashing.fingerprint(Paths.get("temp", "fingerprint"),
+				VERSION,
+				Paths.get("data/mappings/intermediary-1.14.4.tiny"),
+				Paths.get("data/mappings/voldemap-1.14.4.tsrg"),
+				Paths.get("data/1.14.4+srg.jar"));
 
-								accessTransformations.addMethodTransformation(
-										subscribeEvent.getMethod(),
-										subscribeEvent.getMethodDescriptor(),
-										AccessTransformation.MAKE_PUBLIC);
-							});
+		long fingerprinted = batch.lap("fingerprint", start);
 
-					reader.accept(eventHandlerScanner, ClassReader.EXPAND_FRAMES);
+		CompiledMappings bridgedMappings = loadMappings(fingerprint);
 
-					ClassWriter writer = new ClassWriter(0);
-					AccessTransformer accessTransformer =
-							new AccessTransformer(writer, accessTransformations);
+		long mappingsLoaded = batch.lap("mappings", fingerprinted);
 
-					node.accept(accessTransformer);
+		Files.createDirectories(Paths.get("input"));
+		Files.createDirectories(Paths.get("output"));
 
-					objectHolders.forEach(entry -> {
-						ClassWriter shimWriter = new ClassWriter(0);
-						String shimName =
-								ObjectHolderGenerator.generate(baseName, entry, shimWriter);
+		ModCache cache = new ModCache(Paths.get("temp", "cache", "mods"), fingerprint);
+		ClassCache classCache = new ClassCache(Paths.get("temp", "cache", "classes"), fingerprint);
 
-						generatedObjectHolderEntries.add(
-								new AbstractMap.SimpleImmutableEntry<>(shimName, entry));
+		HierarchyIndex minecraft = HierarchyIndex.load(Paths.get("data/1.14.4+srg.jar"),
+				bridgedMappings::asRemapper,
+				Paths.get("temp", "hierarchy", "1.14.4.index"),
+				fingerprint);
+		RegistryResolver registries = new RegistryResolver(minecraft, bridgedMappings);
 
-						outputConsumer.accept("/" + shimName, shimWriter.toByteArray());
-					});
+		// The same hierarchy with srg names, which every mod is remapped against. It is only read
+		// from the jar once, all mods share the memory mapped index.
+		HierarchyIndex classpath = HierarchyIndex.load(Paths.get("data/1.14.4+srg.jar"),
+				() -> new Remapper() {},
+				Paths.get("temp", "hierarchy", "1.14.4+srg.index"),
+				fingerprint);
 
-					HashMap<String, SubscribeEvent> subscribeEventShims = new HashMap<>();
+		long hierarchyLoaded = batch.lap("hierarchy", mappingsLoaded);
 
-					subscribeEvents.forEach(entry -> {
-						ClassWriter shimWriter = new ClassWriter(0);
+		// This takes a long time, so we skip it.
+		//
+		// System.out.println("Remapping Minecraft (official -> srg)");
+		// remap(mappings, Paths.get("data/1.14.4+official.jar"), Paths.get("data/1.14.4+srg.jar"));
 
-						if((entry.getAccess() & Opcodes.ACC_STATIC) == 0) {
-							System.err.println(
-									"Instance subscribe events are not supported yet, skipping: " +
-									baseName + "::" + entry.getMethod());
+		List<ModPipeline> pipelines = new ArrayList<>();
+		ResourcePool memory = new ResourcePool("memory", memoryBudget);
+
+		// Only jars directly in input/, the pipelines read input/<mod>.jar
+		try(DirectoryStream<Path> jars = Files.newDirectoryStream(Paths.get("input"), "*.jar")) {
+			for(Path jar : jars) {
+				String fileName = jar.getFileName().toString();
+				String modName = fileName.substring(0, fileName.length() - ".jar".length());
+
+				pipelines.add(new ModPipeline(modName,
+						bridgedMappings,
+						classpath,
+						cache,
+						classCache,
+						registries,
+						memory,
+						timings));
+			}
+		}
 
-							return;
-						}
+		CountDownLatch remaining = new CountDownLatch(pipelines.size());
+		List<String> failed = Collections.synchronizedList(new ArrayList<>());
+		List<String> cached = Collections.synchronizedList(new ArrayList<>());
 
-						String shimName =
-								SubscribeEventGenerator.generate(baseName, entry, shimWriter);
+		for(ModPipeline pipeline : pipelines) {
+			System.out.println("=== Transforming " + pipeline.getMod() + " ===");
 
-						if(subscribeEventShims.containsKey(shimName)) {
-							throw new UnsupportedOperationException(
-									"FIXME: Two @SubscribeEvent shims have the same name! This should be handled by Patchwork, it's a bug!");
-						}
+			pipeline.schedule(scheduler).whenComplete((task, taskScheduler) -> {
+				if(task.hasFailed()) {
+					failed.add(pipeline.getMod());
+				} else if(pipeline.isCached()) {
+					cached.add(pipeline.getMod());
+				}
 
-						subscribeEventShims.put(shimName, entry);
+				remaining.countDown();
+			});
+		}
 
-						outputConsumer.accept("/" + shimName, shimWriter.toByteArray());
-					});
+		remaining.await();
 
-					if(!subscribeEventShims.isEmpty()) {
-						ClassWriter shimWriter = new ClassWriter(0);
-						String shimName = StaticEventRegistrarGenerator.generate(
-								baseName, subscribeEventShims.entrySet(), shimWriter);
+		batch.lap("mods", hierarchyLoaded);
 
-						outputConsumer.accept("/" + shimName, shimWriter.toByteArray());
+		System.out.println("Patched " + (pipelines.size() - failed.size()) + " of " +
+						   pipelines.size() + " mods (" + cached.size() + " unchanged)");
 
-						staticEventRegistrars.add(
-								new AbstractMap.SimpleImmutableEntry<>(shimName, baseName));
-					}
+		if(!failed.isEmpty()) {
+			System.err.println("Transformation failed for: " + String.join(", ", failed));
+		}
+	}
 
-					outputConsumer.accept(baseName, writer.toByteArray());
+	/**
+	 * @return The version from the properties Gradle generates, or "dev" if Patchwork was built
+	 *         without Gradle
+	 */
+	private static String readVersion() {
+		try(InputStream in = Patchwork.class.getResourceAsStream("/patchwork.properties")) {
+			if(in != null) {
+				Properties properties = new Properties();
+				properties.load(in);
+
+				String version = properties.getProperty("version");
+
+				// Not expanded if the resources were copied without Gradle
+				if(version != null && !version.startsWith("${")) {
+					return version;
 				}
-
-				return FileVisitResult.CONTINUE;
 			}
-		});
-
-		ClassWriter initializerWriter = new ClassWriter(0);
-
-		String initializerName = "patchwork_generated" + modName.get() + "Initializer";
-		ForgeInitializerGenerator.generate(modName.get(),
-				initializerName,
-				staticEventRegistrars,
-				eventBusSubscribers,
-				generatedObjectHolderEntries,
-				initializerWriter);
-
-		outputConsumer.accept("/" + initializerName, initializerWriter.toByteArray());
-
-		outputConsumer.close();
-
-		if(shouldClose) {
-			fs.close();
+		} catch(IOException e) {
+			System.err.println("Failed to read the version of Patchwork: " + e);
 		}
 
-		uri = new URI("jar:" + output.toUri().toString());
-		fs = FileSystems.newFileSystem(uri, Collections.emptyMap());
-
-		Path manifestPath = fs.getPath("/META-INF/mods.toml");
-
-		FileConfig toml = FileConfig.of(manifestPath);
-		toml.load();
-
-		Map<String, Object> map = toml.valueMap();
-
-		System.out.println("Raw: " + map);
+		return "dev";
+	}
 
-		ModManifest manifest = ModManifest.parse(map);
+	/**
+	 * @return The memory budget for patching mods if none is given: half of the maximum heap size,
+	 *         the rest is left for the mappings, the Minecraft hierarchy and the output
+	 */
+	public static long getDefaultMemoryBudget() {
+		return Runtime.getRuntime().maxMemory() / 2;
+	}
 
-		// System.out.println("Parsed: " + manifest);
+	/**
+	 * Loads the srg -> intermediary mappings. Parsing and bridging the mappings, as well as
+	 * generating the tiny files, is only done when the fingerprint changes, the result is compiled
+	 * into a file that is simply memory mapped afterwards.
+	 *
+	 * @param fingerprint The fingerprint of the inputs, compiled mappings are only reused if it
+	 *        matches
+	 * @return The srg -> intermediary mappings
+	 */
+	private static CompiledMappings loadMappings(byte[] fingerprint) throws IOException {
+		Path intermediaryPath = Paths.get("data/mappings/intermediary-1.14.4.tiny");
+		Path tsrgPath = Paths.get("data/mappings/voldemap-1.14.4.tsrg");
+		Path tinyPath = Paths.get("data/mappings/voldemap-1.14.4.tiny");
+		Path bridgedTinyPath = Paths.get("data/mappings/voldemap-bridged-1.14.4.tiny");
+		Path compiledPath = Paths.get("temp", "mappings", "srg-intermediary-1.14.4.bin");
 
-		Gson gson = new GsonBuilder().setPrettyPrinting().create();
-		JsonObject fabric = ModManifestConverter.convertToFabric(manifest);
+		CompiledMappings compiled = CompiledMappings.open(compiledPath, fingerprint);
 
-		JsonObject entrypoints = new JsonObject();
-		JsonArray entrypoint = new JsonArray();
+		if(compiled == null || !TinyFile.isCurrent(tinyPath, fingerprint)) {
+			System.out.println("Compiling mappings");
 
-		entrypoint.add(initializerName.replace('/', '.'));
-		entrypoints.add("patchwork", entrypoint);
+			Mappings intermediary = MappingsProvider.readTinyMappings(
+					new FileInputStream(intermediaryPath.toFile()));
+			List<TsrgClass<RawMapping>> classes =
+					Tsrg.readMappings(new FileInputStream(tsrgPath.toFile()));
 
-		fabric.add("entrypoints", entrypoints);
+			TsrgMappings mappings = new TsrgMappings(classes, intermediary, "official");
 
-		String json = gson.toJson(fabric);
+			TinyFile.write(tinyPath, fingerprint, writer -> mappings.writeTiny("srg", writer));
 
-		Path fabricModJson = fs.getPath("/fabric.mod.json");
+			if(compiled == null) {
+				BridgedMappings bridged = new BridgedMappings(mappings, intermediary);
 
-		try {
-			Files.delete(fabricModJson);
-		} catch(IOException ignored) {
+				compiled = CompiledMappings.compile(bridged, compiledPath, fingerprint);
+			}
 		}
 
-		Files.write(fabricModJson, json.getBytes(StandardCharsets.UTF_8));
+		CompiledMappings srgToIntermediary = compiled;
 
-		System.out.println(json);
+		// Not needed by Patchwork itself, but handy for tools working with srg named mods
+		TinyFile.write(bridgedTinyPath,
+				fingerprint,
+				writer -> VoldeBridge.bridgeMappings(srgToIntermediary, writer));
 
-		Files.delete(manifestPath);
-		Files.delete(fs.getPath("pack.mcmeta"));
-
-		fs.close();
-
-		// Late entrypoints
-		// https://github.com/CottonMC/Cotton/blob/master/modules/cotton-datapack/src/main/java/io/github/cottonmc/cotton/datapack/mixins/MixinCottonInitializerServer.java
-	}
-
-	private static void remap(IMappingProvider mappings, Path input, Path output, Path... classpath)
-			throws IOException {
-		TinyRemapper remapper = TinyRemapper.newRemapper()
-										.withMappings(mappings)
-										.rebuildSourceFilenames(true)
-										.build();
-
-		OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build();
-
-		try {
-			outputConsumer.addNonClassFiles(input, NonClassCopyMode.FIX_META_INF, remapper);
-
-			remapper.readClassPath(classpath);
-			remapper.readInputs(input);
-			remapper.apply(outputConsumer);
-		} finally {
-			outputConsumer.close();
-			remapper.finish();
-		}
+		return compiled;
 	}
 }
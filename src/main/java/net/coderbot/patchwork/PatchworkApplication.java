@@ -6,9 +6,11 @@ import net.coderbot.patchwork.commandline.Flag;
 import net.coderbot.patchwork.logging.LogLevel;
 import net.coderbot.patchwork.logging.Logger;
 import net.coderbot.patchwork.logging.writer.StreamWriter;
+import net.coderbot.patchwork.pipeline.TimingReport;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Paths;
 
 import com.electronwill.nightconfig.core.conversion.ObjectBinder;
 import com.electronwill.nightconfig.core.file.FileConfig;
@@ -29,6 +31,19 @@ public class PatchworkApplication {
 
 		@Flag(names = { "j", "thread-count"}, description = "Amount of threads to use, defaults to available cores")
 		int threadCount = Runtime.getRuntime().availableProcessors();
+
+		@Flag(names = "memory-budget",
+				description = "Megabytes of memory the mods patched at the same time may use, " +
+							  "defaults to half of the maximum heap size")
+		int memoryBudget =
+				(int) Math.min(Patchwork.getDefaultMemoryBudget() >> 20, Integer.MAX_VALUE);
+
+		@Flag(names = "metrics", description = "Write task scheduler metrics as JSON to this file")
+		String metricsFile;
+
+		@Flag(names = "timings",
+				description = "Write the time taken by each stage of each mod as JSON to this file")
+		String timingsFile;
 	}
 
 	public static void main(String[] args) {
@@ -71,7 +86,7 @@ public class PatchworkApplication {
 
 			if(!parser.parseSucceeded() || commandline.help) {
 				System.out.println(parser.generateHelpMessage(getExecutableName(),
-						"Patchwork Patcher v0.1.0",
+						"Patchwork Patcher v" + Patchwork.VERSION,
 						"Patchwork Patcher is a set of tools for transforming and patchingForge mod jars\n"
 								+ "into jars that are directly loadable by Fabric Loader.",
 						"This program is still in an unstable alpha state",
@@ -84,7 +99,24 @@ public class PatchworkApplication {
 		TaskScheduler scheduler = new TaskScheduler(commandline.threadCount);
 		scheduler.start();
 
-		scheduler.shutdown(); // This will have to be called by the last task ever run
+		TimingReport timings = new TimingReport();
+
+		try {
+			Patchwork.patchAll(scheduler, (long) commandline.memoryBudget << 20, timings);
+
+			if(commandline.timingsFile != null) {
+				timings.write(Paths.get(commandline.timingsFile));
+			}
+
+			if(commandline.metricsFile != null) {
+				scheduler.getMetrics().write(Paths.get(commandline.metricsFile));
+			}
+		} catch(Exception e) {
+			logger.fatal("Failed to patch mods");
+			logger.thrown(LogLevel.FATAL, e);
+		} finally {
+			scheduler.shutdown();
+		}
 	}
 
 	private static String getExecutableName() {
@@ -0,0 +1,88 @@
+package net.coderbot.patchwork.annotation;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.objectweb.asm.*;
+
+/**
+ * Records which parts of a class carry annotations that Patchwork might need to process, that is,
+ * everything except Java's own annotations.
+ */
+public class AnnotationCollector extends ClassVisitor {
+	private boolean annotated;
+	private Set<String> annotatedMethods;
+
+	public AnnotationCollector(ClassVisitor parent) {
+		super(Opcodes.ASM7, parent);
+
+		this.annotatedMethods = new HashSet<>();
+	}
+
+	private static boolean isProcessed(String descriptor) {
+		// Java annotations are ignored, the same way AnnotationProcessor ignores them
+		return !descriptor.startsWith("Ljava");
+	}
+
+	/**
+	 * @return Whether the class, any of its fields or any of its methods is annotated
+	 */
+	public boolean isAnnotated() {
+		return annotated;
+	}
+
+	/**
+	 * Checks if a method is annotated.
+	 *
+	 * @param name The name of the method
+	 * @param descriptor The descriptor of the method
+	 * @return Whether the method is annotated
+	 */
+	public boolean isAnnotated(String name, String descriptor) {
+		return annotatedMethods.contains(name + descriptor);
+	}
+
+	@Override
+	public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+		annotated |= isProcessed(descriptor);
+
+		return super.visitAnnotation(descriptor, visible);
+	}
+
+	@Override
+	public FieldVisitor visitField(int access,
+			String name,
+			String descriptor,
+			String signature,
+			Object value) {
+		return new FieldVisitor(
+				Opcodes.ASM7, super.visitField(access, name, descriptor, signature, value)) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String annotation, boolean visible) {
+				annotated |= isProcessed(annotation);
+
+				return super.visitAnnotation(annotation, visible);
+			}
+		};
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access,
+			String name,
+			String descriptor,
+			String signature,
+			String[] exceptions) {
+		return new MethodVisitor(Opcodes.ASM7,
+				super.visitMethod(access, name, descriptor, signature, exceptions)) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String annotation, boolean visible) {
+				if(isProcessed(annotation)) {
+					annotated = true;
+					annotatedMethods.add(name + descriptor);
+				}
+
+				return super.visitAnnotation(annotation, visible);
+			}
+		};
+	}
+}
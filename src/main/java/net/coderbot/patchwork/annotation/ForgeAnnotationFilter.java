@@ -0,0 +1,135 @@
+package net.coderbot.patchwork.annotation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks the constant pool of a raw class file for the descriptors of the Forge annotations
+ * Patchwork processes, without parsing the rest of the class. An annotation can only be present if
+ * its descriptor is in the constant pool, so classes failing this check can be passed through
+ * unchanged.
+ */
+public class ForgeAnnotationFilter {
+	private static final byte[] PREFIX = "Lnet/minecraftforge/".getBytes(StandardCharsets.UTF_8);
+
+	private static final Set<String> DESCRIPTORS = new HashSet<>(
+			Arrays.asList("Lnet/minecraftforge/fml/common/Mod;",
+					"Lnet/minecraftforge/api/distmarker/OnlyIn;",
+					"Lnet/minecraftforge/registries/ObjectHolder;",
+					"Lnet/minecraftforge/fml/common/Mod$EventBusSubscriber;",
+					"Lnet/minecraftforge/eventbus/api/SubscribeEvent;"));
+
+	// Constant pool tags, see the JVM specification section 4.4
+	private static final int UTF8 = 1;
+	private static final int INTEGER = 3;
+	private static final int FLOAT = 4;
+	private static final int LONG = 5;
+	private static final int DOUBLE = 6;
+	private static final int CLASS = 7;
+	private static final int STRING = 8;
+	private static final int FIELD_REF = 9;
+	private static final int METHOD_REF = 10;
+	private static final int INTERFACE_METHOD_REF = 11;
+	private static final int NAME_AND_TYPE = 12;
+	private static final int METHOD_HANDLE = 15;
+	private static final int METHOD_TYPE = 16;
+	private static final int DYNAMIC = 17;
+	private static final int INVOKE_DYNAMIC = 18;
+	private static final int MODULE = 19;
+	private static final int PACKAGE = 20;
+
+	/**
+	 * Checks if a class might carry one of the Forge annotations Patchwork processes.
+	 *
+	 * @param classFile The raw class file
+	 * @return <code>false</code> if the class definitely carries none of the annotations,
+	 *         <code>true</code> if it might, or if the class file could not be understood
+	 */
+	public static boolean mayContainForgeAnnotations(byte[] classFile) {
+		if(classFile.length < 10 || readInt(classFile, 0) != 0xCAFEBABE) {
+			return true;
+		}
+
+		int count = readUnsignedShort(classFile, 8);
+		int offset = 10;
+
+		for(int i = 1; i < count; i++) {
+			if(offset >= classFile.length) {
+				return true;
+			}
+
+			int tag = classFile[offset];
+
+			switch(tag) {
+				case UTF8:
+					int length = readUnsignedShort(classFile, offset + 1);
+
+					if(isForgeDescriptor(classFile, offset + 3, length)) {
+						return true;
+					}
+
+					offset += 3 + length;
+					break;
+				case CLASS:
+				case STRING:
+				case METHOD_TYPE:
+				case MODULE:
+				case PACKAGE:
+					offset += 3;
+					break;
+				case METHOD_HANDLE:
+					offset += 4;
+					break;
+				case INTEGER:
+				case FLOAT:
+				case FIELD_REF:
+				case METHOD_REF:
+				case INTERFACE_METHOD_REF:
+				case NAME_AND_TYPE:
+				case DYNAMIC:
+				case INVOKE_DYNAMIC:
+					offset += 5;
+					break;
+				case LONG:
+				case DOUBLE:
+					// These take up two constant pool slots
+					offset += 9;
+					i++;
+					break;
+				default:
+					// Unknown constant, let the full parse deal with it
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isForgeDescriptor(byte[] classFile, int offset, int length) {
+		if(length < PREFIX.length || offset + length > classFile.length) {
+			return false;
+		}
+
+		for(int i = 0; i < PREFIX.length; i++) {
+			if(classFile[offset + i] != PREFIX[i]) {
+				return false;
+			}
+		}
+
+		// Only decode strings that could actually match, the descriptors are plain ASCII
+		String value = new String(classFile, offset, length, StandardCharsets.UTF_8);
+
+		return DESCRIPTORS.contains(value);
+	}
+
+	private static int readUnsignedShort(byte[] b, int offset) {
+		return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+	}
+
+	private static int readInt(byte[] b, int offset) {
+		return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) |
+				((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+	}
+}
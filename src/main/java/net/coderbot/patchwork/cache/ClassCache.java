@@ -0,0 +1,127 @@
+package net.coderbot.patchwork.cache;
+
+import net.coderbot.patchwork.pipeline.TransformedClass;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persistent cache of transformed classes, so that only the classes that changed since a mod
+ * was last patched have to be transformed again. Every mod has its own cache file holding the
+ * classes of the last time it was patched, keyed by the hash of the remapped class.
+ *
+ * The cache files start with the fingerprint of the patcher version and mappings they were created
+ * with, and are ignored entirely if that does not match.
+ */
+public class ClassCache {
+	private static final int MAGIC = 0x50574343; // PWCC
+	private static final int FORMAT = 1;
+
+	private final Path directory;
+	private final byte[] fingerprint;
+
+	/**
+	 * @param directory The directory the cache files are kept in
+	 * @param fingerprint The fingerprint of everything the transformed classes depend on
+	 */
+	public ClassCache(Path directory, byte[] fingerprint) {
+		this.directory = directory;
+		this.fingerprint = fingerprint.clone();
+	}
+
+	/**
+	 * Computes the key of a class.
+	 *
+	 * @param name The name of the class
+	 * @param content The remapped class file
+	 * @return The key of the transformed class in the cache
+	 */
+	public static String getKey(String name, byte[] content) {
+		MessageDigest digest = Hashing.newDigest();
+
+		Hashing.update(digest, name);
+		digest.update(content);
+
+		return Hashing.toHex(digest.digest());
+	}
+
+	/**
+	 * Loads the classes cached for a mod.
+	 *
+	 * @param mod The name of the mod
+	 * @return The cached classes (key -> class), empty if there is no usable cache for the mod
+	 */
+	public Map<String, TransformedClass> load(String mod) throws IOException {
+		Path file = directory.resolve(mod + ".bin");
+
+		try(DataInputStream in =
+						new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(in.readInt() != MAGIC || in.readInt() != FORMAT) {
+				return Collections.emptyMap();
+			}
+
+			byte[] cachedFingerprint = new byte[in.readInt()];
+			in.readFully(cachedFingerprint);
+
+			if(!Arrays.equals(fingerprint, cachedFingerprint)) {
+				return Collections.emptyMap();
+			}
+
+			int count = in.readInt();
+			Map<String, TransformedClass> classes = new HashMap<>(count * 2);
+
+			for(int i = 0; i < count; i++) {
+				classes.put(in.readUTF(), TransformedClass.read(in));
+			}
+
+			return classes;
+		} catch(NoSuchFileException e) {
+			return Collections.emptyMap();
+		} catch(EOFException e) {
+			System.err.println("Ignoring truncated class cache of " + mod);
+
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Replaces the classes cached for a mod.
+	 *
+	 * @param mod The name of the mod
+	 * @param classes The classes to cache (key -> class)
+	 */
+	public void store(String mod, Map<String, TransformedClass> classes) throws IOException {
+		Files.createDirectories(directory);
+
+		Path temp = Files.createTempFile(directory, mod, ".tmp");
+
+		try {
+			try(DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				out.writeInt(fingerprint.length);
+				out.write(fingerprint);
+				out.writeInt(classes.size());
+
+				for(Map.Entry<String, TransformedClass> entry : classes.entrySet()) {
+					out.writeUTF(entry.getKey());
+					entry.getValue().write(out);
+				}
+			}
+
+			Files.move(temp, directory.resolve(mod + ".bin"), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package net.coderbot.patchwork.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SHA-256 helpers for the caches, every cache key is the hex encoded hash of everything the cached
+ * result depends on.
+ */
+public class Hashing {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Feeds the content of a file into a digest.
+	 */
+	public static void update(MessageDigest digest, Path file) throws IOException {
+		byte[] buffer = new byte[65536];
+
+		try(InputStream in = Files.newInputStream(file)) {
+			int read;
+
+			while((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+	}
+
+	/**
+	 * Feeds a string into a digest, terminated so that consecutive strings can't run into each
+	 * other.
+	 */
+	public static void update(MessageDigest digest, String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Hashes a version along with the names and contents of the files a result depends on. The
+	 * same fingerprint is meant to be computed once and shared by all caches, as hashing large
+	 * files like the Minecraft jar takes a while.
+	 *
+	 * @param version The version of the patcher
+	 * @param dependencies The files that influence the result
+	 * @return The fingerprint
+	 */
+	public static byte[] fingerprint(String version, Path... dependencies) throws IOException {
+		MessageDigest digest = newDigest();
+		update(digest, version);
+
+		for(Path dependency : dependencies) {
+			update(digest, dependency.getFileName().toString());
+			update(digest, dependency);
+		}
+
+		return digest.digest();
+	}
+
+	/**
+	 * Like {@link #fingerprint(String, Path...)}, but only hashes the files again once their size
+	 * or modification time changes. The stamp records both along with the fingerprint they
+	 * resulted in, so that unchanged inputs cost a few file system lookups instead of reading
+	 * hundreds of megabytes on every launch.
+	 *
+	 * @param stamp The file to keep the sizes, modification times and fingerprint in
+	 * @param version The version of the patcher
+	 * @param dependencies The files that influence the result
+	 * @return The fingerprint
+	 */
+	public static byte[] fingerprint(Path stamp, String version, Path... dependencies)
+			throws IOException {
+		// Taken before hashing, a file changing while it is hashed is hashed again next time
+		List<String> metadata = new ArrayList<>();
+		metadata.add(version);
+
+		for(Path dependency : dependencies) {
+			metadata.add(dependency.toAbsolutePath() + "\t" + Files.size(dependency) + "\t" +
+						 Files.getLastModifiedTime(dependency).toMillis());
+		}
+
+		if(Files.exists(stamp)) {
+			List<String> lines = Files.readAllLines(stamp, StandardCharsets.UTF_8);
+
+			if(lines.size() == metadata.size() + 1 &&
+					lines.subList(0, metadata.size()).equals(metadata)) {
+				byte[] fingerprint = fromHex(lines.get(metadata.size()));
+
+				if(fingerprint != null) {
+					return fingerprint;
+				}
+			}
+		}
+
+		byte[] fingerprint = fingerprint(version, dependencies);
+		metadata.add(toHex(fingerprint));
+
+		Path directory = stamp.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+
+		// Moved into place, an interrupted write never leaves a stamp that looks valid
+		Path temp = Files.createTempFile(directory, stamp.getFileName().toString(), ".tmp");
+
+		try {
+			Files.write(temp, metadata, StandardCharsets.UTF_8);
+			Files.move(temp, stamp, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		return fingerprint;
+	}
+
+	public static String toHex(byte[] hash) {
+		char[] chars = new char[hash.length * 2];
+
+		for(int i = 0; i < hash.length; i++) {
+			chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 * @return The bytes of a hex string, or <code>null</code> if it is not valid hex
+	 */
+	public static byte[] fromHex(String hex) {
+		if(hex.length() % 2 != 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[hex.length() / 2];
+
+		for(int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(hex.charAt(i * 2), 16);
+			int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+
+			if(high == -1 || low == -1) {
+				return null;
+			}
+
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+
+		return bytes;
+	}
+}
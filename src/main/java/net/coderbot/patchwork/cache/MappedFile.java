@@ -0,0 +1,142 @@
+package net.coderbot.patchwork.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A binary file that is memory mapped instead of parsed, such as the compiled mappings or the
+ * Minecraft hierarchy. Every such file starts with the same header, followed by the body of the
+ * format:
+ *
+ * <pre>
+ * int magic, int format
+ * int hash length, byte[] hash of everything the file was built from
+ * </pre>
+ */
+public class MappedFile {
+	/**
+	 * Writes the body of a file
+	 */
+	public interface Body {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private final ByteBuffer buffer;
+	private final int start;
+
+	private MappedFile(ByteBuffer buffer, int start) {
+		this.buffer = buffer;
+		this.start = start;
+	}
+
+	/**
+	 * Maps a file and checks its header.
+	 *
+	 * @param file The file to map
+	 * @param magic The magic number of the format
+	 * @param format The version of the format
+	 * @param hash The hash of everything the file should have been built from
+	 * @param minimumBody The smallest size the body of a valid file can have
+	 * @return The file, or <code>null</code> if it does not exist, is of another format or was
+	 *         built from something else
+	 */
+	public static MappedFile open(Path file, int magic, int format, byte[] hash, int minimumBody)
+			throws IOException {
+		if(!Files.exists(file)) {
+			return null;
+		}
+
+		MappedByteBuffer buffer;
+
+		// The mapping stays valid after the channel is closed
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buffer.limit() < 12 || buffer.getInt(0) != magic || buffer.getInt(4) != format) {
+			return null;
+		}
+
+		int hashLength = buffer.getInt(8);
+
+		if(hashLength != hash.length || buffer.limit() < 12 + hashLength + minimumBody) {
+			return null;
+		}
+
+		byte[] fileHash = new byte[hashLength];
+		ByteBuffer view = buffer.duplicate();
+		view.position(12);
+		view.get(fileHash);
+
+		if(!Arrays.equals(hash, fileHash)) {
+			return null;
+		}
+
+		return new MappedFile(buffer, 12 + hashLength);
+	}
+
+	/**
+	 * Writes a file. It is written under a temporary name first and then moved into place, so
+	 * that a damaged file is never picked up.
+	 *
+	 * @param file The file to write
+	 * @param magic The magic number of the format
+	 * @param format The version of the format
+	 * @param hash The hash of everything the file is built from
+	 * @param body Writes the body of the file
+	 */
+	public static void write(Path file, int magic, int format, byte[] hash, Body body)
+			throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+		try {
+			try(DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(magic);
+				out.writeInt(format);
+				out.writeInt(hash.length);
+				out.write(hash);
+
+				body.write(out);
+			}
+
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * @return The whole file, only to be read with absolute reads as it is shared between threads
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The position of the body in the file
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return The size of the file
+	 */
+	public int size() {
+		return buffer.limit();
+	}
+}
@@ -0,0 +1,90 @@
+package net.coderbot.patchwork.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+/**
+ * A persistent cache of patched mod jars. Entries are keyed by the hash of the input jar along with
+ * the patcher version and every file the patched jar depends on, such as the mappings, so a cached
+ * jar is only ever reused if patching the input again would produce the same result.
+ */
+public class ModCache {
+	private final Path directory;
+	private final byte[] fingerprint;
+
+	/**
+	 * @param directory The directory the patched jars are kept in
+	 * @param fingerprint The fingerprint of everything the patched jars depend on apart from the
+	 *        mod jars themselves
+	 * @see Hashing#fingerprint(String, Path...)
+	 */
+	public ModCache(Path directory, byte[] fingerprint) {
+		this.directory = directory;
+		this.fingerprint = fingerprint.clone();
+	}
+
+	/**
+	 * @return The fingerprint this cache was created with
+	 */
+	public byte[] getFingerprint() {
+		return fingerprint.clone();
+	}
+
+	/**
+	 * Computes the key of a mod jar.
+	 *
+	 * @param jar The unpatched mod jar
+	 * @return The key of the patched jar in this cache
+	 */
+	public String getKey(Path jar) throws IOException {
+		MessageDigest digest = Hashing.newDigest();
+
+		digest.update(fingerprint);
+		Hashing.update(digest, jar);
+
+		return Hashing.toHex(digest.digest());
+	}
+
+	/**
+	 * Copies a cached jar to the output, if there is one.
+	 *
+	 * @param key The key of the mod jar
+	 * @param output Where to put the patched jar
+	 * @return Whether the jar was cached
+	 */
+	public boolean restore(String key, Path output) throws IOException {
+		Path cached = directory.resolve(key + ".jar");
+
+		if(!Files.exists(cached)) {
+			return false;
+		}
+
+		Files.copy(cached, output, StandardCopyOption.REPLACE_EXISTING);
+
+		return true;
+	}
+
+	/**
+	 * Adds a patched jar to the cache.
+	 *
+	 * @param key The key of the mod jar
+	 * @param output The patched jar
+	 */
+	public void store(String key, Path output) throws IOException {
+		Files.createDirectories(directory);
+
+		// Copied under a temporary name first, so that a cache entry is never seen half written
+		Path temp = Files.createTempFile(directory, key, ".tmp");
+
+		try {
+			Files.copy(output, temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, directory.resolve(key + ".jar"), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
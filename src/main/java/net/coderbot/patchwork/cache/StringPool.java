@@ -0,0 +1,243 @@
+package net.coderbot.patchwork.cache;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The strings of a {@link MappedFile}, stored as a table of offsets and a UTF-8 pool that ends the
+ * file:
+ *
+ * <pre>
+ * int[strings + 1] string offsets into the pool
+ * ...
+ * byte[] string pool, UTF-8
+ * </pre>
+ *
+ * Strings are referenced by their index, -1 stands for no string. They are only decoded once
+ * they are first needed.
+ *
+ * A pool may come with a lookup table to find the index of a string, written right after the
+ * offset table:
+ *
+ * <pre>
+ * int[strings] string hashes
+ * int[slots] hash table of string indices, -1 for free slots
+ * </pre>
+ */
+public class StringPool {
+	private final ByteBuffer buffer;
+	private final int offsets;
+	private final int lookup;
+	private final int pool;
+
+	// Filled in lazily, racing threads at worst decode the same string twice
+	private final String[] strings;
+
+	/**
+	 * @param buffer The mapped file
+	 * @param offsets The position of the offset table
+	 * @param count The amount of strings
+	 * @param pool The position of the pool
+	 */
+	public StringPool(ByteBuffer buffer, int offsets, int count, int pool) {
+		this(buffer, offsets, count, -1, pool);
+	}
+
+	/**
+	 * @param buffer The mapped file
+	 * @param offsets The position of the offset table
+	 * @param count The amount of strings
+	 * @param lookup The position of the lookup table, or -1 if there is none
+	 * @param pool The position of the pool
+	 */
+	public StringPool(ByteBuffer buffer, int offsets, int count, int lookup, int pool) {
+		this.buffer = buffer;
+		this.offsets = offsets;
+		this.lookup = lookup;
+		this.pool = pool;
+		this.strings = new String[count];
+	}
+
+	/**
+	 * @param count The amount of strings in the pool
+	 * @return The size of the offset table of the pool, in bytes
+	 */
+	public static int tableSize(int count) {
+		return (count + 1) * 4;
+	}
+
+	/**
+	 * @param count The amount of strings in the pool
+	 * @return The size of the lookup table of the pool, in bytes
+	 */
+	public static int lookupSize(int count) {
+		return (count + slotCount(count)) * 4;
+	}
+
+	/**
+	 * @param count The amount of entries in a hash table
+	 * @return The amount of slots of the table, a power of two so that it is at most half full
+	 */
+	public static int slotCount(int count) {
+		return Integer.highestOneBit(Math.max(count, 1) * 2) * 2;
+	}
+
+	/**
+	 * Checks that the pool ends exactly where the file ends, which is not the case for truncated
+	 * or otherwise damaged files.
+	 *
+	 * @return Whether the pool is complete
+	 */
+	public boolean isComplete() {
+		int limit = buffer.limit();
+
+		return offsets + tableSize(strings.length) <= pool && pool <= limit &&
+				pool + offset(strings.length) == limit;
+	}
+
+	/**
+	 * @return The string at an index, or <code>null</code> for -1
+	 */
+	public String get(int index) {
+		if(index == -1) {
+			return null;
+		}
+
+		String string = strings[index];
+
+		if(string == null) {
+			int start = offset(index);
+			byte[] bytes = new byte[offset(index + 1) - start];
+
+			// Absolute reads only, the buffer is shared between threads
+			ByteBuffer view = buffer.duplicate();
+			view.position(pool + start);
+			view.get(bytes);
+
+			string = new String(bytes, StandardCharsets.UTF_8);
+			strings[index] = string;
+		}
+
+		return string;
+	}
+
+	/**
+	 * Finds a string using the lookup table.
+	 *
+	 * @return The index of the string, or -1 if it is not in the pool
+	 * @throws IllegalStateException If the pool has no lookup table
+	 */
+	public int indexOf(String string) {
+		if(lookup == -1) {
+			throw new IllegalStateException("The string pool has no lookup table");
+		}
+
+		int hash = string.hashCode();
+		int slots = lookup + strings.length * 4;
+		int mask = slotCount(strings.length) - 1;
+
+		for(int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+			int index = buffer.getInt(slots + slot * 4);
+
+			if(index == -1) {
+				return -1;
+			}
+
+			if(buffer.getInt(lookup + index * 4) == hash && get(index).equals(string)) {
+				return index;
+			}
+		}
+	}
+
+	private int offset(int index) {
+		return buffer.getInt(offsets + index * 4);
+	}
+
+	/**
+	 * Collects the strings of a file that is being written, every distinct string is only stored
+	 * once
+	 */
+	public static class Builder {
+		private final Map<String, Integer> indices = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+
+		private byte[][] encoded;
+
+		/**
+		 * @return The index of a string, adding it if it is new
+		 */
+		public int index(String string) {
+			return indices.computeIfAbsent(string, s -> {
+				strings.add(s);
+
+				return strings.size() - 1;
+			});
+		}
+
+		public int size() {
+			return strings.size();
+		}
+
+		/**
+		 * Writes the offset table, no strings can be added after this.
+		 */
+		public void writeOffsets(DataOutputStream out) throws IOException {
+			encoded = new byte[strings.size()][];
+			int offset = 0;
+
+			for(int i = 0; i < encoded.length; i++) {
+				encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+
+				out.writeInt(offset);
+				offset += encoded[i].length;
+			}
+
+			out.writeInt(offset);
+		}
+
+		/**
+		 * Writes the lookup table, right after the offset table.
+		 */
+		public void writeLookup(DataOutputStream out) throws IOException {
+			int[] slots = new int[slotCount(strings.size())];
+			Arrays.fill(slots, -1);
+
+			for(int i = 0; i < strings.size(); i++) {
+				int hash = strings.get(i).hashCode();
+				int slot = mix(hash) & (slots.length - 1);
+
+				while(slots[slot] != -1) {
+					slot = (slot + 1) & (slots.length - 1);
+				}
+
+				slots[slot] = i;
+
+				out.writeInt(hash);
+			}
+
+			for(int slot : slots) {
+				out.writeInt(slot);
+			}
+		}
+
+		/**
+		 * Writes the pool, after the offset table and everything else in the file.
+		 */
+		public void writePool(DataOutputStream out) throws IOException {
+			for(byte[] string : encoded) {
+				out.write(string);
+			}
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,71 @@
+package net.coderbot.patchwork.hierarchy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * The direct supertypes of a set of classes, kept in memory. This is meant for the classes of a
+ * single mod, the hierarchy of Minecraft is kept in a {@link HierarchyIndex}.
+ */
+public class ClassHierarchy {
+	private static final String[] NO_INTERFACES = new String[0];
+
+	private final Map<String, String> superclasses;
+	private final Map<String, String[]> interfaces;
+
+	public ClassHierarchy() {
+		this.superclasses = new HashMap<>();
+		this.interfaces = new HashMap<>();
+	}
+
+	/**
+	 * Adds a class.
+	 *
+	 * @param name The name of the class
+	 * @param superclass The name of its superclass, <code>null</code> for java/lang/Object
+	 * @param interfaces The names of the interfaces it directly implements
+	 */
+	public void add(String name, String superclass, String[] interfaces) {
+		this.superclasses.put(name, superclass);
+		this.interfaces.put(name, interfaces.length == 0 ? NO_INTERFACES : interfaces);
+	}
+
+	/**
+	 * Adds a class, only its header is read.
+	 *
+	 * @param classFile The class file
+	 */
+	public void add(byte[] classFile) {
+		ClassReader reader = new ClassReader(classFile);
+
+		add(reader.getClassName(), reader.getSuperName(), reader.getInterfaces());
+	}
+
+	public boolean contains(String name) {
+		return superclasses.containsKey(name);
+	}
+
+	/**
+	 * @return The superclass of a class, or <code>null</code> if the class is not part of this
+	 *         hierarchy or is java/lang/Object
+	 */
+	public String getSuperclass(String name) {
+		return superclasses.get(name);
+	}
+
+	/**
+	 * @return The interfaces a class directly implements, empty if the class is not part of this
+	 *         hierarchy
+	 */
+	public String[] getInterfaces(String name) {
+		return interfaces.getOrDefault(name, NO_INTERFACES).clone();
+	}
+
+	public Set<String> getClasses() {
+		return Collections.unmodifiableSet(superclasses.keySet());
+	}
+}
@@ -0,0 +1,485 @@
+package net.coderbot.patchwork.hierarchy;
+
+import net.coderbot.patchwork.cache.MappedFile;
+import net.coderbot.patchwork.cache.StringPool;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * The class hierarchy and declared members of a jar, stored in a compact file that is memory
+ * mapped instead of parsed. The file is built once from the jar and reused until anything it was
+ * built from changes:
+ *
+ * <pre>
+ * int magic, int format
+ * int hash length, byte[] hash of everything the index was built from
+ * int strings, int classes, int slots, int interfaces, int members
+ * int[strings + 1] string offsets into the pool
+ * int[slots] hash table of class indices, -1 for free slots
+ * classes * (int name, int name hash, int superclass, int first interface, int interface count,
+ *            int first member, int field count, int method count)
+ * int[interfaces] interface names
+ * members * (int name, int descriptor), fields of a class followed by its methods
+ * byte[] string pool, UTF-8
+ * </pre>
+ *
+ * All strings are referenced by their index in the pool, -1 stands for no string.
+ */
+public class HierarchyIndex {
+	private static final int MAGIC = 0x50574849; // PWHI
+	private static final int FORMAT = 1;
+
+	private static final int CLASS_SIZE = 8 * 4;
+	private static final int MEMBER_SIZE = 2 * 4;
+
+	private final ByteBuffer buffer;
+	private final int classCount;
+	private final int slotCount;
+
+	private final int slots;
+	private final int classes;
+	private final int interfaces;
+	private final int members;
+	private final StringPool strings;
+
+	private HierarchyIndex(MappedFile file) {
+		this.buffer = file.getBuffer();
+
+		int start = file.getStart();
+		int stringCount = buffer.getInt(start);
+		this.classCount = buffer.getInt(start + 4);
+		this.slotCount = buffer.getInt(start + 8);
+		int interfaceCount = buffer.getInt(start + 12);
+		int memberCount = buffer.getInt(start + 16);
+
+		int offsets = start + 20;
+		this.slots = offsets + StringPool.tableSize(stringCount);
+		this.classes = slots + slotCount * 4;
+		this.interfaces = classes + classCount * CLASS_SIZE;
+		this.members = interfaces + interfaceCount * 4;
+
+		this.strings = new StringPool(
+				buffer, offsets, stringCount, members + memberCount * MEMBER_SIZE);
+	}
+
+	/**
+	 * Gets the index of a jar, building it only if there is no up to date index on disk.
+	 *
+	 * @param jar The jar to index
+	 * @param remapper Creates the remapper renaming classes and members as they are indexed, only
+	 *        called if the index has to be built
+	 * @param file Where the index is kept on disk
+	 * @param hash The hash of everything the index depends on, that is the jar and the mappings
+	 * @return The index
+	 */
+	public static HierarchyIndex load(Path jar,
+			Supplier<? extends Remapper> remapper,
+			Path file,
+			byte[] hash) throws IOException {
+		HierarchyIndex index = open(file, hash);
+
+		if(index == null) {
+			build(jar, remapper.get(), file, hash);
+
+			index = open(file, hash);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Opens an index.
+	 *
+	 * @return The index, or <code>null</code> if it does not exist, is not valid, or was built
+	 *         from something else
+	 */
+	public static HierarchyIndex open(Path file, byte[] hash) throws IOException {
+		MappedFile mapped = MappedFile.open(file, MAGIC, FORMAT, hash, 20);
+
+		if(mapped == null) {
+			return null;
+		}
+
+		HierarchyIndex index = new HierarchyIndex(mapped);
+
+		return index.strings.isComplete() ? index : null;
+	}
+
+	public int size() {
+		return classCount;
+	}
+
+	/**
+	 * @return The names of all indexed classes
+	 */
+	public List<String> getClasses() {
+		List<String> names = new ArrayList<>(classCount);
+
+		for(int i = 0; i < classCount; i++) {
+			names.add(string(classField(i, 0)));
+		}
+
+		return names;
+	}
+
+	public boolean contains(String name) {
+		return find(name) != -1;
+	}
+
+	/**
+	 * @return The superclass of a class, or <code>null</code> if the class is not indexed or is
+	 *         java/lang/Object
+	 */
+	public String getSuperclass(String name) {
+		int clazz = find(name);
+
+		return clazz == -1 ? null : string(classField(clazz, 2));
+	}
+
+	/**
+	 * @return The interfaces a class directly implements, empty if the class is not indexed
+	 */
+	public String[] getInterfaces(String name) {
+		int clazz = find(name);
+
+		if(clazz == -1) {
+			return new String[0];
+		}
+
+		int first = classField(clazz, 3);
+		String[] names = new String[classField(clazz, 4)];
+
+		for(int i = 0; i < names.length; i++) {
+			names[i] = string(buffer.getInt(interfaces + (first + i) * 4));
+		}
+
+		return names;
+	}
+
+	/**
+	 * Gets all supertypes of a class, as far as they are indexed.
+	 *
+	 * @return The superclasses of the class, nearest first, followed by all interfaces it
+	 *         implements
+	 */
+	public Set<String> getSupertypes(String name) {
+		Set<String> supertypes = new LinkedHashSet<>();
+
+		for(String superclass = getSuperclass(name); superclass != null;
+				superclass = getSuperclass(superclass)) {
+			supertypes.add(superclass);
+		}
+
+		List<String> pending = new ArrayList<>();
+		pending.add(name);
+		pending.addAll(supertypes);
+
+		while(!pending.isEmpty()) {
+			for(String implemented : getInterfaces(pending.remove(pending.size() - 1))) {
+				if(supertypes.add(implemented)) {
+					pending.add(implemented);
+				}
+			}
+		}
+
+		return supertypes;
+	}
+
+	/**
+	 * @return Whether a class declares a field itself
+	 */
+	public boolean declaresField(String owner, String name, String descriptor) {
+		int clazz = find(owner);
+
+		return clazz != -1 &&
+				hasMember(classField(clazz, 5), classField(clazz, 6), name, descriptor);
+	}
+
+	/**
+	 * @return Whether a class declares a method itself
+	 */
+	public boolean declaresMethod(String owner, String name, String descriptor) {
+		int clazz = find(owner);
+
+		return clazz != -1 &&
+				hasMember(classField(clazz, 5) + classField(clazz, 6),
+						classField(clazz, 7),
+						name,
+						descriptor);
+	}
+
+	/**
+	 * Finds the class declaring a field that is accessed through a class, following the JVM field
+	 * resolution order.
+	 *
+	 * @return The declaring class, or <code>null</code> if it is not indexed
+	 */
+	public String getFieldOwner(String owner, String name, String descriptor) {
+		if(declaresField(owner, name, descriptor)) {
+			return owner;
+		}
+
+		for(String implemented : getInterfaces(owner)) {
+			String found = getFieldOwner(implemented, name, descriptor);
+
+			if(found != null) {
+				return found;
+			}
+		}
+
+		String superclass = getSuperclass(owner);
+
+		return superclass != null ? getFieldOwner(superclass, name, descriptor) : null;
+	}
+
+	/**
+	 * Finds the class declaring a method that is invoked on a class, looking through the
+	 * superclasses before the interfaces.
+	 *
+	 * @return The declaring class, or <code>null</code> if it is not indexed
+	 */
+	public String getMethodOwner(String owner, String name, String descriptor) {
+		for(String clazz = owner; clazz != null; clazz = getSuperclass(clazz)) {
+			if(declaresMethod(clazz, name, descriptor)) {
+				return clazz;
+			}
+		}
+
+		for(String supertype : getSupertypes(owner)) {
+			if(declaresMethod(supertype, name, descriptor)) {
+				return supertype;
+			}
+		}
+
+		return null;
+	}
+
+	private boolean hasMember(int first, int count, String name, String descriptor) {
+		for(int i = first; i < first + count; i++) {
+			int member = members + i * MEMBER_SIZE;
+
+			if(string(buffer.getInt(member)).equals(name) &&
+					string(buffer.getInt(member + 4)).equals(descriptor)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return The index of a class, or -1 if it is not indexed
+	 */
+	private int find(String name) {
+		if(slotCount == 0) {
+			return -1;
+		}
+
+		int hash = name.hashCode();
+		int mask = slotCount - 1;
+
+		for(int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+			int clazz = buffer.getInt(slots + slot * 4);
+
+			if(clazz == -1) {
+				return -1;
+			}
+
+			if(classField(clazz, 1) == hash && string(classField(clazz, 0)).equals(name)) {
+				return clazz;
+			}
+		}
+	}
+
+	private int classField(int clazz, int field) {
+		return buffer.getInt(classes + clazz * CLASS_SIZE + field * 4);
+	}
+
+	private String string(int index) {
+		return strings.get(index);
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static void build(Path jar, Remapper remapper, Path file, byte[] hash)
+			throws IOException {
+		Builder builder = new Builder(remapper);
+
+		try(ZipFile zip = new ZipFile(jar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if(!entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				try(InputStream in = zip.getInputStream(entry)) {
+					new ClassReader(in).accept(builder,
+							ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG |
+									ClassReader.SKIP_FRAMES);
+				}
+			}
+		}
+
+		MappedFile.write(file, MAGIC, FORMAT, hash, builder::write);
+	}
+
+	/**
+	 * Collects the classes and members of a jar, pooling every string
+	 */
+	private static class Builder extends ClassVisitor {
+		private final Remapper remapper;
+
+		private StringPool.Builder strings = new StringPool.Builder();
+
+		private List<int[]> classes = new ArrayList<>();
+		private List<Integer> interfaces = new ArrayList<>();
+		private List<int[]> members = new ArrayList<>();
+
+		// Members of the class being visited, fields are written before methods
+		private String owner;
+		private List<int[]> fields = new ArrayList<>();
+		private List<int[]> methods = new ArrayList<>();
+
+		Builder(Remapper remapper) {
+			super(Opcodes.ASM7);
+
+			this.remapper = remapper;
+		}
+
+		@Override
+		public void visit(int version,
+				int access,
+				String name,
+				String signature,
+				String superName,
+				String[] interfaces) {
+			owner = name;
+			fields.clear();
+			methods.clear();
+
+			String mapped = remapper.mapType(name);
+
+			int[] clazz = new int[8];
+			clazz[0] = index(mapped);
+			clazz[1] = mapped.hashCode();
+			clazz[2] = superName != null ? index(remapper.mapType(superName)) : -1;
+			clazz[3] = this.interfaces.size();
+			clazz[4] = interfaces != null ? interfaces.length : 0;
+
+			if(interfaces != null) {
+				for(String implemented : interfaces) {
+					this.interfaces.add(index(remapper.mapType(implemented)));
+				}
+			}
+
+			classes.add(clazz);
+		}
+
+		@Override
+		public FieldVisitor visitField(int access,
+				String name,
+				String descriptor,
+				String signature,
+				Object value) {
+			fields.add(new int[] { index(remapper.mapFieldName(owner, name, descriptor)),
+					index(remapper.mapDesc(descriptor)) });
+
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access,
+				String name,
+				String descriptor,
+				String signature,
+				String[] exceptions) {
+			methods.add(new int[] { index(remapper.mapMethodName(owner, name, descriptor)),
+					index(remapper.mapMethodDesc(descriptor)) });
+
+			return null;
+		}
+
+		@Override
+		public void visitEnd() {
+			int[] clazz = classes.get(classes.size() - 1);
+
+			clazz[5] = members.size();
+			clazz[6] = fields.size();
+			clazz[7] = methods.size();
+
+			members.addAll(fields);
+			members.addAll(methods);
+		}
+
+		private int index(String string) {
+			return strings.index(string);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			// Kept at most half full
+			int slotCount = Integer.highestOneBit(Math.max(classes.size(), 1) * 2) * 2;
+			int[] slots = new int[slotCount];
+			Arrays.fill(slots, -1);
+
+			for(int i = 0; i < classes.size(); i++) {
+				int slot = mix(classes.get(i)[1]) & (slotCount - 1);
+
+				while(slots[slot] != -1) {
+					slot = (slot + 1) & (slotCount - 1);
+				}
+
+				slots[slot] = i;
+			}
+
+			out.writeInt(strings.size());
+			out.writeInt(classes.size());
+			out.writeInt(slotCount);
+			out.writeInt(interfaces.size());
+			out.writeInt(members.size());
+
+			strings.writeOffsets(out);
+
+			for(int slot : slots) {
+				out.writeInt(slot);
+			}
+
+			for(int[] clazz : classes) {
+				for(int value : clazz) {
+					out.writeInt(value);
+				}
+			}
+
+			for(int implemented : interfaces) {
+				out.writeInt(implemented);
+			}
+
+			for(int[] member : members) {
+				out.writeInt(member[0]);
+				out.writeInt(member[1]);
+			}
+
+			strings.writePool(out);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package net.coderbot.patchwork.mapping;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.fabricmc.mappings.ClassEntry;
+import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.mappings.FieldEntry;
+import net.fabricmc.mappings.Mappings;
+import net.fabricmc.mappings.MethodEntry;
+import net.fabricmc.tinyremapper.IMappingProvider;
+
+/**
+ * Provides srg -> intermediary mappings by chaining srg -> official (inverted tsrg) and
+ * official -> intermediary (tiny) mappings, so that a mod only needs to be remapped once.
+ */
+public class BridgedMappings implements IMappingProvider {
+	private TsrgMappings mappings;
+	private Mappings intermediary;
+	private ClassRemapper remapper;
+
+	public BridgedMappings(TsrgMappings mappings, Mappings intermediary) {
+		if(!intermediary.getNamespaces().contains("official")) {
+			throw new IllegalArgumentException(
+					"intermediary mappings must contain an official column");
+		}
+
+		if(!intermediary.getNamespaces().contains("intermediary")) {
+			throw new IllegalArgumentException(
+					"intermediary mappings must contain an intermediary column");
+		}
+
+		this.mappings = mappings;
+		this.intermediary = intermediary;
+		this.remapper = mappings.getOfficialToMapped();
+	}
+
+	public void load(MappingAcceptor out) {
+		load(MappingSink.of(out));
+	}
+
+	void load(MappingSink out) {
+		// official -> intermediary, keyed by official owner / name / descriptor
+		Map<String, String> classes = new HashMap<>();
+		Map<String, String> fields = new HashMap<>();
+		Map<String, String> methods = new HashMap<>();
+
+		for(ClassEntry entry : intermediary.getClassEntries()) {
+			classes.put(entry.get("official"), entry.get("intermediary"));
+		}
+
+		for(FieldEntry entry : intermediary.getFieldEntries()) {
+			fields.put(key(entry.get("official")), entry.get("intermediary").getName());
+		}
+
+		for(MethodEntry entry : intermediary.getMethodEntries()) {
+			methods.put(key(entry.get("official")), entry.get("intermediary").getName());
+		}
+
+		// Entries are removed once consumed, anything left over has no srg name and is emitted
+		// afterwards. Missing intermediary names fall back to the official name, which is what
+		// the official -> intermediary pass would have left behind.
+
+		for(TsrgClass<Mapping> clazz : mappings.classes) {
+			String official = clazz.getOfficial();
+			String target = classes.remove(official);
+
+			out.acceptClass(clazz.getMapped(), target != null ? target : official);
+
+			for(Mapping field : clazz.getFields()) {
+				String description = remapper.mapDesc(field.getDescription());
+				target = fields.remove(key(official, field.getOfficial(), field.getDescription()));
+
+				out.acceptField(clazz.getMapped(),
+						field.getMapped(),
+						description,
+						target != null ? target : field.getOfficial());
+			}
+
+			for(Mapping method : clazz.getMethods()) {
+				String description = remapper.mapMethodDesc(method.getDescription());
+				target = methods.remove(
+						key(official, method.getOfficial(), method.getDescription()));
+
+				out.acceptMethod(clazz.getMapped(),
+						method.getMapped(),
+						description,
+						target != null ? target : method.getOfficial());
+			}
+		}
+
+		classes.forEach((official, target) -> out.acceptClass(remapper.map(official), target));
+
+		for(FieldEntry entry : intermediary.getFieldEntries()) {
+			EntryTriple official = entry.get("official");
+			String target = fields.get(key(official));
+
+			if(target != null) {
+				out.acceptField(remapper.map(official.getOwner()),
+						official.getName(),
+						remapper.mapDesc(official.getDesc()),
+						target);
+			}
+		}
+
+		for(MethodEntry entry : intermediary.getMethodEntries()) {
+			EntryTriple official = entry.get("official");
+			String target = methods.get(key(official));
+
+			if(target != null) {
+				out.acceptMethod(remapper.map(official.getOwner()),
+						official.getName(),
+						remapper.mapMethodDesc(official.getDesc()),
+						target);
+			}
+		}
+	}
+
+	private static String key(EntryTriple triple) {
+		return key(triple.getOwner(), triple.getName(), triple.getDesc());
+	}
+
+	private static String key(String owner, String name, String description) {
+		return owner + '.' + name + ':' + description;
+	}
+
+	/**
+	 *
+	 * @return the tsrg mappings used to create these bridged mappings
+	 */
+	public TsrgMappings getOriginal() {
+		return mappings;
+	}
+}
@@ -3,14 +3,24 @@ package net.coderbot.patchwork.mapping;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import org.objectweb.asm.commons.Remapper;
 
 public class ClassRemapper extends Remapper {
+	// Enough for every distinct descriptor in Minecraft, the cache is only cleared if a remapper
+	// is used for far more than that
+	private static final int DESCRIPTOR_CACHE_LIMIT = 1 << 17;
+
 	private final Map<String, String> classMapping;
 
+	// Field and method descriptors never collide as only method descriptors start with (
+	private final Map<String, String> descriptorCache;
+
 	private ClassRemapper() {
 		classMapping = new HashMap<>();
+		descriptorCache = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -45,4 +55,41 @@ public class ClassRemapper extends Remapper {
 
 		return mapped != null ? mapped : super.map(official);
 	}
+
+	/**
+	 * Remaps a field descriptor. The result is cached, as the same descriptors come up over and
+	 * over again. This is safe to call from multiple threads.
+	 */
+	@Override
+	public String mapDesc(String descriptor) {
+		return cached(descriptor, super::mapDesc);
+	}
+
+	/**
+	 * Remaps a method descriptor. The result is cached, as the same descriptors come up over and
+	 * over again. This is safe to call from multiple threads.
+	 */
+	@Override
+	public String mapMethodDesc(String descriptor) {
+		return cached(descriptor, super::mapMethodDesc);
+	}
+
+	private String cached(String descriptor, Function<String, String> mapper) {
+		String mapped = descriptorCache.get(descriptor);
+
+		if(mapped != null) {
+			return mapped;
+		}
+
+		// Not computeIfAbsent, mapMethodDesc calls mapDesc which would update the map recursively
+		mapped = mapper.apply(descriptor);
+
+		if(descriptorCache.size() >= DESCRIPTOR_CACHE_LIMIT) {
+			descriptorCache.clear();
+		}
+
+		descriptorCache.put(descriptor, mapped);
+
+		return mapped;
+	}
 }
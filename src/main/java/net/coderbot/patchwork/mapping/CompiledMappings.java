@@ -0,0 +1,407 @@
+package net.coderbot.patchwork.mapping;
+
+import net.coderbot.patchwork.cache.MappedFile;
+import net.coderbot.patchwork.cache.StringPool;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Mappings compiled into a compact binary file that is memory mapped instead of parsed. The file
+ * consists of the header of a {@link MappedFile}, a string pool and fixed width class, field and
+ * method records that refer to the strings by index. Open addressed hash tables over the string
+ * indices let single names be looked up without scanning the records:
+ *
+ * <pre>
+ * int strings, int classes, int fields, int methods
+ * int[strings + 1] string offsets into the pool
+ * int[strings] string hashes, int[string slots] string indices, -1 for free slots
+ * int[class slots] class records by name, -1 for free slots
+ * int[class slots] class records by mapped name
+ * int[field slots] field records by owner, name and descriptor
+ * int[method slots] method records by owner, name and descriptor
+ * classes * (int name, int mapped)
+ * fields * (int owner, int name, int descriptor, int mapped)
+ * methods * (int owner, int name, int descriptor, int mapped)
+ * byte[] string pool, UTF-8
+ * </pre>
+ *
+ * Lookups only read the mapped file, so they are safe from any thread.
+ *
+ * @see StringPool
+ */
+public class CompiledMappings implements IMappingProvider {
+	private static final int MAGIC = 0x50574d50; // PWMP
+	private static final int FORMAT = 2;
+
+	private final ByteBuffer buffer;
+	private final int classCount;
+	private final int fieldCount;
+	private final int methodCount;
+
+	private final int classSlots;
+	private final int mappedClassSlots;
+	private final int fieldSlots;
+	private final int methodSlots;
+
+	private final int classes;
+	private final int fields;
+	private final int methods;
+	private final StringPool strings;
+
+	private CompiledMappings(MappedFile file) {
+		this.buffer = file.getBuffer();
+
+		int start = file.getStart();
+		int stringCount = buffer.getInt(start);
+		this.classCount = buffer.getInt(start + 4);
+		this.fieldCount = buffer.getInt(start + 8);
+		this.methodCount = buffer.getInt(start + 12);
+
+		int offsets = start + 16;
+		int lookup = offsets + StringPool.tableSize(stringCount);
+		this.classSlots = lookup + StringPool.lookupSize(stringCount);
+		this.mappedClassSlots = classSlots + StringPool.slotCount(classCount) * 4;
+		this.fieldSlots = mappedClassSlots + StringPool.slotCount(classCount) * 4;
+		this.methodSlots = fieldSlots + StringPool.slotCount(fieldCount) * 4;
+
+		this.classes = methodSlots + StringPool.slotCount(methodCount) * 4;
+		this.fields = classes + classCount * 8;
+		this.methods = fields + fieldCount * 16;
+
+		this.strings = new StringPool(
+				buffer, offsets, stringCount, lookup, methods + methodCount * 16);
+	}
+
+	/**
+	 * Opens compiled mappings.
+	 *
+	 * @param file The compiled mappings
+	 * @param hash The hash of the files the mappings should have been compiled from
+	 * @return The mappings, or <code>null</code> if the file does not exist, is not valid or was
+	 *         compiled from different files
+	 */
+	public static CompiledMappings open(Path file, byte[] hash) throws IOException {
+		MappedFile mapped = MappedFile.open(file, MAGIC, FORMAT, hash, 16);
+
+		if(mapped == null) {
+			return null;
+		}
+
+		CompiledMappings mappings = new CompiledMappings(mapped);
+
+		return mappings.strings.isComplete() ? mappings : null;
+	}
+
+	/**
+	 * Compiles bridged mappings into a file.
+	 *
+	 * @param mappings The mappings to compile
+	 * @param file Where to write the compiled mappings
+	 * @param hash The hash of the files the mappings were created from
+	 * @return The compiled mappings, read back from the file
+	 */
+	public static CompiledMappings compile(BridgedMappings mappings, Path file, byte[] hash)
+			throws IOException {
+		Compiler compiler = new Compiler();
+		mappings.load(compiler);
+
+		MappedFile.write(file, MAGIC, FORMAT, hash, compiler::write);
+
+		return open(file, hash);
+	}
+
+	@Override
+	public void load(MappingAcceptor out) {
+		load(MappingSink.of(out));
+	}
+
+	void load(MappingSink out) {
+		for(int i = 0; i < classCount; i++) {
+			int record = classes + i * 8;
+
+			out.acceptClass(string(record), string(record + 4));
+		}
+
+		for(int i = 0; i < fieldCount; i++) {
+			int record = fields + i * 16;
+
+			out.acceptField(string(record),
+					string(record + 4),
+					string(record + 8),
+					string(record + 12));
+		}
+
+		for(int i = 0; i < methodCount; i++) {
+			int record = methods + i * 16;
+
+			out.acceptMethod(string(record),
+					string(record + 4),
+					string(record + 8),
+					string(record + 12));
+		}
+	}
+
+	/**
+	 * @return The class names of these mappings (name -> mapped)
+	 */
+	public Map<String, String> getClasses() {
+		Map<String, String> classes = new HashMap<>(classCount * 2);
+
+		for(int i = 0; i < classCount; i++) {
+			int record = this.classes + i * 8;
+
+			classes.put(string(record), string(record + 4));
+		}
+
+		return classes;
+	}
+
+	/**
+	 * Gets the mapped name of a class.
+	 *
+	 * @param name The name of the class
+	 * @return The mapped name, or <code>null</code> if the class is not mapped
+	 */
+	public String getMappedClass(String name) {
+		return findClass(classSlots, 0, name);
+	}
+
+	/**
+	 * Gets the name a class is mapped from, for example the srg name of an intermediary class.
+	 *
+	 * @param mapped The mapped name of the class
+	 * @return The name, or <code>null</code> if no class is mapped to that name
+	 */
+	public String getUnmappedClass(String mapped) {
+		return findClass(mappedClassSlots, 4, mapped);
+	}
+
+	/**
+	 * Gets the mapped name of a field.
+	 *
+	 * @param owner The name of the class declaring the field
+	 * @param name The name of the field
+	 * @param description The descriptor of the field, with unmapped class names
+	 * @return The mapped name, or <code>null</code> if the field is not mapped
+	 */
+	public String getMappedField(String owner, String name, String description) {
+		return findMember(fieldSlots, fields, fieldCount, owner, name, description);
+	}
+
+	/**
+	 * Gets the mapped name of a method.
+	 *
+	 * @param owner The name of the class declaring the method
+	 * @param name The name of the method
+	 * @param description The descriptor of the method, with unmapped class names
+	 * @return The mapped name, or <code>null</code> if the method is not mapped
+	 */
+	public String getMappedMethod(String owner, String name, String description) {
+		return findMember(methodSlots, methods, methodCount, owner, name, description);
+	}
+
+	/**
+	 * Creates an ASM remapper applying these mappings. It looks every name up in the file, nothing
+	 * is loaded up front.
+	 *
+	 * @return The remapper
+	 */
+	public Remapper asRemapper() {
+		return new Remapper() {
+			@Override
+			public String map(String name) {
+				String mapped = getMappedClass(name);
+
+				return mapped != null ? mapped : name;
+			}
+
+			@Override
+			public String mapFieldName(String owner, String name, String descriptor) {
+				String mapped = getMappedField(owner, name, descriptor);
+
+				return mapped != null ? mapped : name;
+			}
+
+			@Override
+			public String mapMethodName(String owner, String name, String descriptor) {
+				String mapped = getMappedMethod(owner, name, descriptor);
+
+				return mapped != null ? mapped : name;
+			}
+		};
+	}
+
+	/**
+	 * @param table The position of the hash table to search
+	 * @param key The offset of the name the table is keyed by within the class records
+	 * @return The other name of the class record found, or <code>null</code> if there is none
+	 */
+	private String findClass(int table, int key, String name) {
+		int id = strings.indexOf(name);
+
+		if(id == -1) {
+			return null;
+		}
+
+		int mask = StringPool.slotCount(classCount) - 1;
+
+		for(int slot = hash(id) & mask;; slot = (slot + 1) & mask) {
+			int clazz = buffer.getInt(table + slot * 4);
+
+			if(clazz == -1) {
+				return null;
+			}
+
+			int record = classes + clazz * 8;
+
+			if(buffer.getInt(record + key) == id) {
+				return string(record + 4 - key);
+			}
+		}
+	}
+
+	private String findMember(int table,
+			int records,
+			int count,
+			String owner,
+			String name,
+			String description) {
+		int ownerId = strings.indexOf(owner);
+		int nameId = strings.indexOf(name);
+		int descriptionId = strings.indexOf(description);
+
+		// Strings that are not in the pool can't be part of any member
+		if(ownerId == -1 || nameId == -1 || descriptionId == -1) {
+			return null;
+		}
+
+		int mask = StringPool.slotCount(count) - 1;
+
+		for(int slot = hash(ownerId, nameId, descriptionId) & mask;; slot = (slot + 1) & mask) {
+			int member = buffer.getInt(table + slot * 4);
+
+			if(member == -1) {
+				return null;
+			}
+
+			int record = records + member * 16;
+
+			if(buffer.getInt(record) == ownerId && buffer.getInt(record + 4) == nameId &&
+					buffer.getInt(record + 8) == descriptionId) {
+				return string(record + 12);
+			}
+		}
+	}
+
+	/**
+	 * @return The string referenced at a position in the file
+	 */
+	private String string(int position) {
+		return strings.get(buffer.getInt(position));
+	}
+
+	/**
+	 * Collects mappings, pooling every string
+	 */
+	private static class Compiler implements MappingSink {
+		private StringPool.Builder strings = new StringPool.Builder();
+
+		private List<int[]> classes = new ArrayList<>();
+		private List<int[]> fields = new ArrayList<>();
+		private List<int[]> methods = new ArrayList<>();
+
+		@Override
+		public void acceptClass(String name, String mapped) {
+			classes.add(new int[] { index(name), index(mapped) });
+		}
+
+		@Override
+		public void acceptField(String owner, String name, String description, String mapped) {
+			fields.add(new int[] { index(owner), index(name), index(description), index(mapped) });
+		}
+
+		@Override
+		public void acceptMethod(String owner, String name, String description, String mapped) {
+			methods.add(
+					new int[] { index(owner), index(name), index(description), index(mapped) });
+		}
+
+		private int index(String string) {
+			return strings.index(string);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(strings.size());
+			out.writeInt(classes.size());
+			out.writeInt(fields.size());
+			out.writeInt(methods.size());
+
+			strings.writeOffsets(out);
+			strings.writeLookup(out);
+
+			writeTable(out, classes, clazz -> hash(clazz[0]));
+			writeTable(out, classes, clazz -> hash(clazz[1]));
+			writeTable(out, fields, field -> hash(field[0], field[1], field[2]));
+			writeTable(out, methods, method -> hash(method[0], method[1], method[2]));
+
+			for(List<int[]> records : Arrays.asList(classes, fields, methods)) {
+				for(int[] record : records) {
+					for(int value : record) {
+						out.writeInt(value);
+					}
+				}
+			}
+
+			strings.writePool(out);
+		}
+
+		/**
+		 * Writes an open addressed hash table of record indices. If multiple records share a key,
+		 * the first one is found.
+		 */
+		private static void writeTable(DataOutputStream out,
+				List<int[]> records,
+				ToIntFunction<int[]> hash) throws IOException {
+			int[] slots = new int[StringPool.slotCount(records.size())];
+			Arrays.fill(slots, -1);
+
+			for(int i = 0; i < records.size(); i++) {
+				int slot = hash.applyAsInt(records.get(i)) & (slots.length - 1);
+
+				while(slots[slot] != -1) {
+					slot = (slot + 1) & (slots.length - 1);
+				}
+
+				slots[slot] = i;
+			}
+
+			for(int slot : slots) {
+				out.writeInt(slot);
+			}
+		}
+	}
+
+	private static int hash(int id) {
+		return hash(id, 0, 0);
+	}
+
+	private static int hash(int owner, int name, int descriptor) {
+		int hash = owner * 0x9E3779B1;
+		hash = (hash ^ name) * 0x9E3779B1;
+		hash = (hash ^ descriptor) * 0x9E3779B1;
+
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,39 @@
+package net.coderbot.patchwork.mapping;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+
+/**
+ * Receives mappings one entry at a time, independently of the format they are stored in.
+ */
+interface MappingSink {
+	void acceptClass(String name, String mapped);
+
+	void acceptField(String owner, String name, String description, String mapped);
+
+	void acceptMethod(String owner, String name, String description, String mapped);
+
+	/**
+	 * Forwards mappings to Tiny Remapper.
+	 */
+	static MappingSink of(IMappingProvider.MappingAcceptor out) {
+		return new MappingSink() {
+			@Override
+			public void acceptClass(String name, String mapped) {
+				out.acceptClass(name, mapped);
+			}
+
+			@Override
+			public void acceptField(String owner, String name, String description, String mapped) {
+				out.acceptField(new IMappingProvider.Member(owner, name, description), mapped);
+			}
+
+			@Override
+			public void acceptMethod(String owner,
+					String name,
+					String description,
+					String mapped) {
+				out.acceptMethod(new IMappingProvider.Member(owner, name, description), mapped);
+			}
+		};
+	}
+}
@@ -0,0 +1,190 @@
+package net.coderbot.patchwork.mapping;
+
+import net.coderbot.patchwork.hierarchy.ClassHierarchy;
+import net.coderbot.patchwork.hierarchy.HierarchyIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.MethodRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Remaps the classes of a mod from srg to intermediary. Tiny Remapper reads and parses the whole
+ * Minecraft classpath for every remapper it builds, here the hierarchy of Minecraft comes from a
+ * memory mapped {@link HierarchyIndex} that is shared by all mods, and names are looked up in the
+ * compiled mappings. Only the headers of the classes of the mod itself are read for every mod.
+ *
+ * Members referenced through a class that does not declare them are looked up at the class that
+ * does, walking up through the classes of the mod first and Minecraft after that.
+ *
+ * A remapper belongs to a single mod and is not thread safe.
+ */
+public class ModRemapper extends Remapper {
+	private static final String LAMBDA_METAFACTORY = "java/lang/invoke/LambdaMetafactory";
+
+	private final CompiledMappings mappings;
+	private final HierarchyIndex minecraft;
+	private final ClassHierarchy mod;
+
+	// Mapped member names, keyed by kind, owner, name and descriptor
+	private final Map<String, String> members;
+
+	/**
+	 * @param mappings The srg -> intermediary mappings
+	 * @param minecraft The hierarchy of Minecraft, with srg names
+	 * @param mod The hierarchy of the classes of the mod
+	 */
+	public ModRemapper(CompiledMappings mappings, HierarchyIndex minecraft, ClassHierarchy mod) {
+		this.mappings = mappings;
+		this.minecraft = minecraft;
+		this.mod = mod;
+		this.members = new HashMap<>();
+	}
+
+	/**
+	 * Remaps a class of the mod.
+	 *
+	 * @param reader The class, with srg names
+	 * @return The class file with intermediary names
+	 */
+	public byte[] remap(ClassReader reader) {
+		ClassWriter writer = new ClassWriter(0);
+		reader.accept(new Visitor(writer), 0);
+
+		return writer.toByteArray();
+	}
+
+	@Override
+	public String map(String name) {
+		String mapped = mappings.getMappedClass(name);
+
+		return mapped != null ? mapped : name;
+	}
+
+	@Override
+	public String mapFieldName(String owner, String name, String descriptor) {
+		return members.computeIfAbsent("F" + owner + '.' + name + ':' + descriptor,
+				key -> mapMember(owner, name, descriptor, true));
+	}
+
+	@Override
+	public String mapMethodName(String owner, String name, String descriptor) {
+		// Constructors and static initializers are never renamed
+		if(name.startsWith("<")) {
+			return name;
+		}
+
+		return members.computeIfAbsent("M" + owner + '.' + name + descriptor,
+				key -> mapMember(owner, name, descriptor, false));
+	}
+
+	private String mapMember(String owner, String name, String descriptor, boolean field) {
+		// Most references name the declaring class directly
+		String mapped = lookup(owner, name, descriptor, field);
+
+		if(mapped != null) {
+			return mapped;
+		}
+
+		for(String inherited : getMinecraftSupertypes(owner)) {
+			String declaring = field ? minecraft.getFieldOwner(inherited, name, descriptor) :
+									   minecraft.getMethodOwner(inherited, name, descriptor);
+
+			if(declaring != null) {
+				mapped = lookup(declaring, name, descriptor, field);
+
+				if(mapped != null) {
+					return mapped;
+				}
+			}
+		}
+
+		return name;
+	}
+
+	private String lookup(String owner, String name, String descriptor, boolean field) {
+		return field ? mappings.getMappedField(owner, name, descriptor) :
+					   mappings.getMappedMethod(owner, name, descriptor);
+	}
+
+	/**
+	 * Finds where the hierarchy of a class leaves the mod.
+	 *
+	 * @return The classes outside of the mod that a class directly or indirectly extends or
+	 *         implements through classes of the mod, the nearest superclass first. For classes
+	 *         that are not part of the mod, just the class itself.
+	 */
+	private Set<String> getMinecraftSupertypes(String owner) {
+		Set<String> supertypes = new LinkedHashSet<>();
+
+		if(!mod.contains(owner)) {
+			supertypes.add(owner);
+
+			return supertypes;
+		}
+
+		List<String> modClasses = new ArrayList<>();
+		Set<String> visited = new HashSet<>();
+		String clazz = owner;
+
+		while(clazz != null && mod.contains(clazz) && visited.add(clazz)) {
+			modClasses.add(clazz);
+			clazz = mod.getSuperclass(clazz);
+		}
+
+		if(clazz != null && !mod.contains(clazz)) {
+			supertypes.add(clazz);
+		}
+
+		for(int i = 0; i < modClasses.size(); i++) {
+			for(String implemented : mod.getInterfaces(modClasses.get(i))) {
+				if(!mod.contains(implemented)) {
+					supertypes.add(implemented);
+				} else if(visited.add(implemented)) {
+					modClasses.add(implemented);
+				}
+			}
+		}
+
+		return supertypes;
+	}
+
+	/**
+	 * Remaps a class, including the names of the interface methods that lambdas implement
+	 */
+	private class Visitor extends org.objectweb.asm.commons.ClassRemapper {
+		Visitor(ClassVisitor parent) {
+			super(Opcodes.ASM7, parent, ModRemapper.this);
+		}
+
+		@Override
+		protected MethodVisitor createMethodRemapper(MethodVisitor parent) {
+			return new MethodRemapper(Opcodes.ASM7, parent, remapper) {
+				@Override
+				public void visitInvokeDynamicInsn(String name,
+						String descriptor,
+						Handle bootstrap,
+						Object... arguments) {
+					// The name of a lambda is the name of the method it implements, which is
+					// declared by the interface it returns with the erased descriptor passed first
+					if(bootstrap.getOwner().equals(LAMBDA_METAFACTORY) && arguments.length > 0 &&
+							arguments[0] instanceof Type) {
+						String implemented = Type.getReturnType(descriptor).getInternalName();
+
+						name = mapMethodName(
+								implemented, name, ((Type) arguments[0]).getDescriptor());
+					}
+
+					super.visitInvokeDynamicInsn(name, descriptor, bootstrap, arguments);
+				}
+			};
+		}
+	}
+}
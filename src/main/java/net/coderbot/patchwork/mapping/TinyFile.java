@@ -0,0 +1,105 @@
+package net.coderbot.patchwork.mapping;
+
+import net.coderbot.patchwork.cache.Hashing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Writes generated mapping files. Next to every file the fingerprint of the inputs it was
+ * generated from is kept, so that a file is only generated again once its inputs change. Files
+ * whose content did not change are left untouched, so that tools watching them do not pick up a
+ * change that did not happen.
+ */
+public class TinyFile {
+	public interface Content {
+		void write(Writer writer) throws IOException;
+	}
+
+	/**
+	 * Checks whether a file was generated from specific inputs.
+	 *
+	 * @param file The generated file
+	 * @param fingerprint The fingerprint of the inputs
+	 * @return Whether the file exists and was generated from the same inputs
+	 */
+	public static boolean isCurrent(Path file, byte[] fingerprint) throws IOException {
+		Path stamp = getStamp(file);
+
+		if(!Files.exists(file) || !Files.exists(stamp)) {
+			return false;
+		}
+
+		String expected = Hashing.toHex(fingerprint);
+
+		return expected.equals(new String(Files.readAllBytes(stamp), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes a file unless it was already generated from the same inputs. The content is streamed
+	 * to a temporary file while being hashed, and only replaces the existing file if the hashes
+	 * differ.
+	 *
+	 * @param file The file to write
+	 * @param fingerprint The fingerprint of the inputs the content is generated from
+	 * @param content Writes the content of the file
+	 * @return Whether the file was changed
+	 */
+	public static boolean write(Path file, byte[] fingerprint, Content content) throws IOException {
+		if(isCurrent(file, fingerprint)) {
+			return false;
+		}
+
+		boolean changed = write(file, content);
+
+		// Written last, a file interrupted while being written is generated again
+		Files.write(getStamp(file), Hashing.toHex(fingerprint).getBytes(StandardCharsets.UTF_8));
+
+		return changed;
+	}
+
+	private static boolean write(Path file, Content content) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+		try {
+			MessageDigest digest = Hashing.newDigest();
+
+			try(Writer writer = new BufferedWriter(new OutputStreamWriter(
+						new DigestOutputStream(Files.newOutputStream(temp), digest),
+						StandardCharsets.UTF_8))) {
+				content.write(writer);
+			}
+
+			if(Files.exists(file)) {
+				MessageDigest existing = Hashing.newDigest();
+				Hashing.update(existing, file);
+
+				if(Arrays.equals(digest.digest(), existing.digest())) {
+					return false;
+				}
+			}
+
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+
+			return true;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Path getStamp(Path file) {
+		return file.resolveSibling(file.getFileName() + ".fingerprint");
+	}
+}
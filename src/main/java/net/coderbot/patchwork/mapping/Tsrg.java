@@ -1,64 +1,298 @@
 package net.coderbot.patchwork.mapping;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Tsrg {
+	/**
+	 * Receives the entries of a .tsrg file in the order they appear in. Members belong to the
+	 * class visited last.
+	 */
+	public interface Visitor {
+		void visitClass(String official, String mapped);
 
-	public static List<TsrgClass<RawMapping>> readMappings(InputStream stream) throws IOException {
-		InputStreamReader streamReader = new InputStreamReader(stream);
-		BufferedReader reader = new BufferedReader(streamReader);
+		void visitField(String official, String mapped);
+
+		void visitMethod(String official, String description, String mapped);
+	}
 
+	public static List<TsrgClass<RawMapping>> readMappings(InputStream stream) throws IOException {
 		List<TsrgClass<RawMapping>> classes = new ArrayList<>();
-		TsrgClass<RawMapping> last = null;
-		String line;
+
+		read(stream, new Visitor() {
+			private TsrgClass<RawMapping> last;
+
+			@Override
+			public void visitClass(String official, String mapped) {
+				last = new TsrgClass<>(official, mapped);
+
+				classes.add(last);
+			}
+
+			@Override
+			public void visitField(String official, String mapped) {
+				last.addField(new RawMapping(official, mapped));
+			}
+
+			@Override
+			public void visitMethod(String official, String description, String mapped) {
+				last.addMethod(new Mapping(official, mapped, description));
+			}
+		});
+
+		return classes;
+	}
+
+	/**
+	 * Parses a .tsrg file. The file is tokenized in place in a byte buffer, only the tokens
+	 * themselves are turned into strings. Names and descriptors repeat a lot, so everything except
+	 * the mapped member names is pooled, which is what keeps the parsed mappings small.
+	 *
+	 * @param stream The .tsrg file, closed once it has been read
+	 * @param visitor The visitor to receive the entries
+	 */
+	public static void read(InputStream stream, Visitor visitor) throws IOException {
+		Pool pool = new Pool();
+		byte[] buffer = new byte[65536];
+		int[] tokens = new int[6];
+
+		int length = 0;
+		int lineNumber = 0;
+		boolean hasClass = false;
 
 		try {
-			while((line = reader.readLine()) != null) {
-				String[] parts = line.split(" ");
+			while(true) {
+				int read = stream.read(buffer, length, buffer.length - length);
+				boolean end = read == -1;
 
-				if(line.startsWith("\t")) {
-					if(last == null) {
-						throw new IllegalStateException(
-								"A .tsrg file cannot start with a tabbed entry!");
+				if(!end) {
+					length += read;
+				}
+
+				int lineStart = 0;
+
+				while(true) {
+					int lineEnd = indexOf(buffer, '\n', lineStart, length);
+
+					if(lineEnd == -1) {
+						if(!end || lineStart >= length) {
+							break;
+						}
+
+						// The last line does not need to end with a line break
+						lineEnd = length;
 					}
 
-					String official = parts[0].trim();
+					lineNumber++;
 
-					if(parts.length == 2) {
-						// Field
+					int contentEnd = lineEnd;
 
-						String mcp = parts[1];
+					if(contentEnd > lineStart && buffer[contentEnd - 1] == '\r') {
+						contentEnd--;
+					}
 
-						last.addField(new RawMapping(official, mcp));
+					boolean member = contentEnd > lineStart && buffer[lineStart] == '\t';
+					int count = tokenize(buffer, lineStart, contentEnd, tokens);
 
-					} else {
-						// Method
+					if(count != 0) {
+						if(member) {
+							if(!hasClass) {
+								throw new IllegalStateException(
+										"A .tsrg file cannot start with a tabbed entry!");
+							}
 
-						String description = parts[1];
-						String mcp = parts[2];
+							if(count == 2) {
+								// Field
+								visitor.visitField(pool.get(buffer, tokens[0], tokens[1]),
+										decode(buffer, tokens[2], tokens[3]));
+							} else if(count == 3) {
+								// Method
+								visitor.visitMethod(pool.get(buffer, tokens[0], tokens[1]),
+										pool.get(buffer, tokens[2], tokens[3]),
+										decode(buffer, tokens[4], tokens[5]));
+							} else {
+								throw malformed(lineNumber);
+							}
+						} else if(count == 2) {
+							hasClass = true;
 
-						last.addMethod(new Mapping(official, mcp, description));
+							visitor.visitClass(pool.get(buffer, tokens[0], tokens[1]),
+									pool.get(buffer, tokens[2], tokens[3]));
+						} else {
+							throw malformed(lineNumber);
+						}
 					}
 
-				} else {
-					String official = parts[0];
-					String mcp = parts[1];
+					lineStart = lineEnd + 1;
+				}
+
+				if(end) {
+					break;
+				}
 
-					last = new TsrgClass<>(official, mcp);
+				// Keep the incomplete line at the start of the buffer, growing it if a single line
+				// does not fit
+				length -= lineStart;
+				System.arraycopy(buffer, lineStart, buffer, 0, length);
 
-					classes.add(last);
+				if(length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
 				}
 			}
 		} finally {
-			reader.close();
-			streamReader.close();
+			stream.close();
 		}
+	}
 
-		return classes;
+	/**
+	 * Splits a line into at most three space or tab separated tokens.
+	 *
+	 * @return The number of tokens, or 4 if there are more than 3
+	 */
+	private static int tokenize(byte[] buffer, int start, int end, int[] tokens) {
+		int count = 0;
+		int i = start;
+
+		while(true) {
+			while(i < end && (buffer[i] == ' ' || buffer[i] == '\t')) {
+				i++;
+			}
+
+			if(i == end) {
+				return count;
+			}
+
+			if(count == 3) {
+				return 4;
+			}
+
+			tokens[count * 2] = i;
+
+			while(i < end && buffer[i] != ' ' && buffer[i] != '\t') {
+				i++;
+			}
+
+			tokens[count * 2 + 1] = i;
+			count++;
+		}
+	}
+
+	private static int indexOf(byte[] buffer, char c, int start, int end) {
+		for(int i = start; i < end; i++) {
+			if(buffer[i] == c) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static String decode(byte[] buffer, int start, int end) {
+		return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private static IllegalStateException malformed(int line) {
+		return new IllegalStateException("Malformed .tsrg entry on line " + line);
+	}
+
+	/**
+	 * Deduplicates strings straight from their bytes, so that repeated tokens are not decoded
+	 * again.
+	 */
+	private static class Pool {
+		private String[] table = new String[4096];
+		private int size;
+
+		String get(byte[] buffer, int start, int end) {
+			int hash = 0;
+
+			for(int i = start; i < end; i++) {
+				if(buffer[i] < 0) {
+					// Not ASCII, the hash would not match String.hashCode
+					return get(decode(buffer, start, end));
+				}
+
+				hash = 31 * hash + buffer[i];
+			}
+
+			int mask = table.length - 1;
+
+			for(int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+				String existing = table[slot];
+
+				if(existing == null) {
+					return insert(slot, decode(buffer, start, end));
+				}
+
+				if(existing.hashCode() == hash && matches(existing, buffer, start, end)) {
+					return existing;
+				}
+			}
+		}
+
+		String get(String value) {
+			int mask = table.length - 1;
+
+			for(int slot = mix(value.hashCode()) & mask;; slot = (slot + 1) & mask) {
+				String existing = table[slot];
+
+				if(existing == null) {
+					return insert(slot, value);
+				}
+
+				if(existing.equals(value)) {
+					return existing;
+				}
+			}
+		}
+
+		private String insert(int slot, String value) {
+			table[slot] = value;
+			size++;
+
+			// Kept at most half full
+			if(size * 2 > table.length) {
+				String[] old = table;
+				table = new String[old.length * 2];
+
+				int mask = table.length - 1;
+
+				for(String string : old) {
+					if(string != null) {
+						int index = mix(string.hashCode()) & mask;
+
+						while(table[index] != null) {
+							index = (index + 1) & mask;
+						}
+
+						table[index] = string;
+					}
+				}
+			}
+
+			return value;
+		}
+
+		private static boolean matches(String string, byte[] buffer, int start, int end) {
+			if(string.length() != end - start) {
+				return false;
+			}
+
+			for(int i = 0; i < string.length(); i++) {
+				if(string.charAt(i) != buffer[start + i]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private static int mix(int hash) {
+			return hash ^ (hash >>> 16);
+		}
 	}
 }
@@ -1,5 +1,8 @@
 package net.coderbot.patchwork.mapping;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -13,6 +16,8 @@ import net.fabricmc.tinyremapper.IMappingProvider;
 public class TsrgMappings implements IMappingProvider {
 	List<TsrgClass<Mapping>> classes;
 
+	private ClassRemapper officialToMapped;
+
 	public TsrgMappings(List<TsrgClass<RawMapping>> classes,
 			Mappings reference,
 			String officialName) {
@@ -68,6 +73,20 @@ public class TsrgMappings implements IMappingProvider {
 		return fieldDescriptions;
 	}
 
+	/**
+	 * Gets a remapper from official to mapped class names. It is shared by everything derived
+	 * from these mappings, so that descriptors remapped once are cached for all of them.
+	 *
+	 * @return The official -> mapped class remapper
+	 */
+	public synchronized ClassRemapper getOfficialToMapped() {
+		if(officialToMapped == null) {
+			officialToMapped = ClassRemapper.officialToMapped(classes);
+		}
+
+		return officialToMapped;
+	}
+
 	public void load(MappingAcceptor out) {
 		for(TsrgClass<Mapping> clazz : classes) {
 			out.acceptClass(clazz.getOfficial(), clazz.getMapped());
@@ -89,47 +108,63 @@ public class TsrgMappings implements IMappingProvider {
 	}
 
 	public String writeTiny(String finalNamespace) {
-		StringBuilder tiny = new StringBuilder();
+		StringWriter writer = new StringWriter();
+
+		try {
+			writeTiny(finalNamespace, writer);
+		} catch(IOException e) {
+			// Should never happen, string writing is infallible
+
+			throw new IllegalStateException("Got an impossible IOException!", e);
+		}
+
+		return writer.toString();
+	}
 
-		tiny.append("v1\tofficial\t");
-		tiny.append(finalNamespace);
-		tiny.append('\n');
+	/**
+	 * Writes these mappings in the tiny format entry by entry, without building the whole file in
+	 * memory first.
+	 *
+	 * @param finalNamespace The name of the mapped namespace
+	 * @param writer Where to write the mappings to, this should be buffered
+	 */
+	public void writeTiny(String finalNamespace, Writer writer) throws IOException {
+		writer.write("v1\tofficial\t");
+		writer.write(finalNamespace);
+		writer.write('\n');
 
 		for(TsrgClass<Mapping> clazz : classes) {
 
-			tiny.append("CLASS\t");
-			tiny.append(clazz.getOfficial());
-			tiny.append('\t');
-			tiny.append(clazz.getMapped());
-			tiny.append('\n');
+			writer.write("CLASS\t");
+			writer.write(clazz.getOfficial());
+			writer.write('\t');
+			writer.write(clazz.getMapped());
+			writer.write('\n');
 
 			for(Mapping field : clazz.getFields()) {
-
-				tiny.append("FIELD\t");
-				tiny.append(clazz.getOfficial());
-				tiny.append('\t');
-				tiny.append(field.getDescription());
-				tiny.append('\t');
-				tiny.append(field.getOfficial());
-				tiny.append('\t');
-				tiny.append(field.getMapped());
-				tiny.append('\n');
+				writeMember(writer, "FIELD\t", clazz, field);
 			}
 
 			for(Mapping method : clazz.getMethods()) {
-
-				tiny.append("METHOD\t");
-				tiny.append(clazz.getOfficial());
-				tiny.append('\t');
-				tiny.append(method.getDescription());
-				tiny.append('\t');
-				tiny.append(method.getOfficial());
-				tiny.append('\t');
-				tiny.append(method.getMapped());
-				tiny.append('\n');
+				writeMember(writer, "METHOD\t", clazz, method);
 			}
 		}
 
-		return tiny.toString();
+		writer.flush();
+	}
+
+	private static void writeMember(Writer writer,
+			String type,
+			TsrgClass<Mapping> clazz,
+			Mapping member) throws IOException {
+		writer.write(type);
+		writer.write(clazz.getOfficial());
+		writer.write('\t');
+		writer.write(member.getDescription());
+		writer.write('\t');
+		writer.write(member.getOfficial());
+		writer.write('\t');
+		writer.write(member.getMapped());
+		writer.write('\n');
 	}
 }
@@ -1,168 +1,96 @@
 package net.coderbot.patchwork.mapping;
 
-import java.io.BufferedWriter;
-import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 
-import net.fabricmc.mappings.*;
+import net.fabricmc.mappings.Mappings;
 
 public class VoldeBridge {
-	/*/**
-	 * Creates srg -> intermediary mappings from official -> intermediary and official -> srg
-	 * mappings
-	 * @param intermediaryMappings
-	 * @param classes
+	/**
+	 * Creates srg -> intermediary mappings in the tiny format from official -> intermediary and
+	 * official -> srg mappings. The entries are the ones of {@link BridgedMappings}, in the same
+	 * order.
+	 *
+	 * @param mappings The official -> srg mappings
+	 * @param intermediaryMappings The official -> intermediary mappings
+	 * @param writer Where to write the srg -> intermediary mappings to
 	 */
-	public static String bridgeMappings(List<TsrgClass> classes, Mappings intermediaryMappings) {
+	public static void bridgeMappings(TsrgMappings mappings,
+			Mappings intermediaryMappings,
+			Writer writer) throws IOException {
+		BridgedMappings bridged = new BridgedMappings(mappings, intermediaryMappings);
 
-		// First, create an official -> src type descriptor mapper
-		// ClassRemapper remapper = ClassRemapper.officialToMcp(classes);
-
-		if(!intermediaryMappings.getNamespaces().contains("official")) {
-			throw new IllegalArgumentException(
-					"intermediary mappings must contain an official column");
-		}
-
-		if(!intermediaryMappings.getNamespaces().contains("intermediary")) {
-			throw new IllegalArgumentException(
-					"intermediary mappings must contain an intermediary column");
-		}
+		write(writer, sink -> bridged.load(sink));
+	}
 
-		// First, structure the intermediary mappings
-		// Create official -> intermediary maps
+	/**
+	 * Writes already compiled srg -> intermediary mappings in the tiny format, without going back
+	 * to the official mappings.
+	 *
+	 * @param mappings The srg -> intermediary mappings
+	 * @param writer Where to write the mappings to
+	 */
+	public static void bridgeMappings(CompiledMappings mappings, Writer writer)
+			throws IOException {
+		write(writer, sink -> mappings.load(sink));
+	}
 
-		Map<String, TinyClass> intermediaryClasses = new HashMap<>();
+	private interface Source {
+		void load(MappingSink sink);
+	}
 
-		for(ClassEntry entry : intermediaryMappings.getClassEntries()) {
-			String official = entry.get("official");
-			String intermediary = entry.get("intermediary");
+	private static void write(Writer writer, Source source) throws IOException {
+		writer.write("v1\tsrg\tintermediary\n");
 
-			intermediaryClasses.put(official, new TinyClass(intermediary));
+		try {
+			source.load(new TinyWriter(writer));
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
 		}
 
-		for(FieldEntry entry : intermediaryMappings.getFieldEntries()) {
-			EntryTriple official = entry.get("official");
-			EntryTriple intermediary = entry.get("intermediary");
-
-			TinyClass parent = intermediaryClasses.get(official.getOwner());
+		writer.flush();
+	}
 
-			if(parent == null) {
-				throw new IllegalArgumentException("detected an orphan field: official = " +
-												   official + ", intermediary = " + intermediary);
-			}
+	/**
+	 * Writes every entry it receives as a line of a tiny file
+	 */
+	private static class TinyWriter implements MappingSink {
+		private final Writer writer;
 
-			parent.fields.put(
-					official.getName(), new TinyEntry(intermediary.getName(), official.getDesc()));
+		private TinyWriter(Writer writer) {
+			this.writer = writer;
 		}
 
-		for(MethodEntry entry : intermediaryMappings.getMethodEntries()) {
-			EntryTriple official = entry.get("official");
-			EntryTriple intermediary = entry.get("intermediary");
-
-			TinyClass parent = intermediaryClasses.get(official.getOwner());
-
-			if(parent == null) {
-				throw new IllegalArgumentException("detected an orphan method: official = " +
-												   official + ", intermediary = " + intermediary);
-			}
-
-			parent.methods.computeIfAbsent(official.getName(), name -> new HashMap<>())
-					.put(official.getDesc(),
-							new TinyEntry(intermediary.getName(), official.getDesc()));
+		@Override
+		public void acceptClass(String name, String mapped) {
+			line("CLASS", name, mapped);
 		}
 
-		// Now that the mappings are organized, we can export tsrg -> tiny
-
-		StringWriter stringWriter = new StringWriter();
-		BufferedWriter writer = new BufferedWriter(stringWriter);
-
-		/*try {
-			writer.write("v1\tsrg\tintermediary\n");
-
-			for(TsrgClass clazz: classes) {
-				TinyClass tiny = intermediaryClasses.get(clazz.getOfficial());
-
-				if(tiny == null) {
-					throw new IllegalArgumentException("intermediary is missing a mapping:
-		"+clazz.getOfficial()+" / "+clazz.getMcp());
-				}
-
-				writer.write("CLASS\t" + clazz.getMcp() + "\t" + tiny.intermediary + "\n");
-
-				for(TsrgClass.Entry field: clazz.getFields()) {
-					TinyEntry tinyField = tiny.fields.get(field.getOfficial());
+		@Override
+		public void acceptField(String owner, String name, String description, String mapped) {
+			line("FIELD", owner, description, name, mapped);
+		}
 
-					if(tinyField == null) {
-						System.err.println("intermediary is missing a field mapping:
-		"+clazz.getOfficial()+":"+field.getOfficial()+" / "+clazz.getMcp()+":"+field.getMcp());
-						continue;
-					}
+		@Override
+		public void acceptMethod(String owner, String name, String description, String mapped) {
+			line("METHOD", owner, description, name, mapped);
+		}
 
-					String mappedDesc = remapper.mapDesc(tinyField.officialDescriptor);
+		private void line(String type, String... columns) {
+			try {
+				writer.write(type);
 
-					writer.write("FIELD\t" + clazz.getMcp() + "\t" +  mappedDesc + "\t" +
-		field.getMcp() + "\t" + tinyField.intermediary + "\n");
+				for(String column : columns) {
+					writer.write('\t');
+					writer.write(column);
 				}
 
-				for(TsrgClass.DescribedEntry method: clazz.getMethods()) {
-					HashMap<String, TinyEntry> methodMap = tiny.methods.get(method.getOfficial());
-
-					if(methodMap == null) {
-						System.err.println("intermediary is missing a method mapping:
-		"+clazz.getOfficial()+":"+method.getOfficial()+" / "+clazz.getMcp()+":"+method.getMcp());
-						continue;
-					}
-
-					TinyEntry tinyMethod = methodMap.get(method.getDescription());
-
-					if(tinyMethod == null) {
-						System.err.println("intermediary is missing a method mapping:
-		"+clazz.getOfficial()+":"+method.getOfficial()+"["+method.getDescription()+"] /
-		"+clazz.getMcp()+":"+method.getMcp()); continue;
-					}
-
-					String mappedDesc = remapper.mapMethodDesc(tinyMethod.officialDescriptor);
-
-					writer.write("METHOD\t" + clazz.getMcp() + "\t" +  mappedDesc + "\t" +
-		method.getMcp() + "\t" + tinyMethod.intermediary + "\n");
-				}
+				writer.write('\n');
+			} catch(IOException e) {
+				// MappingSink cannot throw, this is unwrapped again by write
+				throw new UncheckedIOException(e);
 			}
-
-			writer.flush();
-		} catch(IOException e) {
-			// Should never happen, string writing is infallible
-
-			throw new IllegalStateException("Got an impossible IOException!", e);
-		}*/
-
-		return stringWriter.toString();
-	}
-
-	private static class TinyClass {
-		String intermediary;
-
-		Map<String, TinyEntry> fields;
-
-		// (official -> (descriptor -> intermediary))
-		Map<String, HashMap<String, TinyEntry>> methods;
-
-		TinyClass(String intermediary) {
-			this.intermediary = intermediary;
-
-			this.fields = new HashMap<>();
-			this.methods = new HashMap<>();
-		}
-	}
-
-	private static class TinyEntry {
-		String intermediary;
-		String officialDescriptor;
-
-		TinyEntry(String intermediary, String officialDescriptor) {
-			this.intermediary = intermediary;
-			this.officialDescriptor = officialDescriptor;
 		}
 	}
 }
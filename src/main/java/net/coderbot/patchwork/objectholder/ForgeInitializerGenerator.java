@@ -1,8 +1,8 @@
 package net.coderbot.patchwork.objectholder;
 
 import net.coderbot.patchwork.event.EventBusSubscriber;
+import net.coderbot.patchwork.hierarchy.ClassHierarchy;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,27 +12,13 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 public class ForgeInitializerGenerator {
-	private static HashMap<String, String> classToRegistry = new HashMap<>();
-	private static HashMap<String, String> classToRegistryType = new HashMap<>();
-
-	static {
-		addMapping("class_2248", "field_11146", "Lnet/minecraft/class_2348;"); // Block -> BLOCK
-		addMapping("class_1959", "field_11153", "Lnet/minecraft/class_2378;"); // Biome -> BIOME
-		addMapping("class_3523",
-				"field_11147",
-				"Lnet/minecraft/class_2378;"); // SurfaceBuilder -> SURFACE_BUILDER
-	}
-
-	private static void addMapping(String clazz, String registry, String registryType) {
-		classToRegistry.put("Lnet/minecraft/" + clazz + ";", registry);
-		classToRegistryType.put("Lnet/minecraft/" + clazz + ";", registryType);
-	}
-
 	public static void generate(String modName,
 			String className,
 			List<Map.Entry<String, String>> staticEventRegistrars,
 			List<Map.Entry<String, EventBusSubscriber>> subscribers,
 			List<Map.Entry<String, ObjectHolder>> objectHolderEntries,
+			RegistryResolver registries,
+			ClassHierarchy modClasses,
 			ClassVisitor visitor) {
 
 		visitor.visit(Opcodes.V1_8,
@@ -137,10 +123,8 @@ public class ForgeInitializerGenerator {
 				String shimName = entry.getKey();
 				ObjectHolder holder = entry.getValue();
 
-				String registry = classToRegistry.get(holder.getDescriptor());
-				String registryType = classToRegistryType.get(holder.getDescriptor());
-
-				// TODO: Need to scan inheritance data to build the class tree for this
+				RegistryResolver.Registry registry =
+						registries.resolve(holder.getDescriptor(), modClasses);
 
 				if(registry == null) {
 					System.err.println("Dont know what registry " + holder.getDescriptor() +
@@ -155,9 +139,9 @@ public class ForgeInitializerGenerator {
 						"Lnet/coderbot/patchwork/ObjectHolderRegistry;");
 
 				method.visitFieldInsn(Opcodes.GETSTATIC,
-						"net/minecraft/class_2378", // net.minecraft.util.Registry
-						registry,
-						registryType);
+						registry.getOwner(),
+						registry.getField(),
+						registry.getType());
 
 				method.visitLdcInsn(holder.getNamespace());
 				method.visitLdcInsn(holder.getName());
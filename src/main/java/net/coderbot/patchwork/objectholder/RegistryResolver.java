@@ -0,0 +1,173 @@
+package net.coderbot.patchwork.objectholder;
+
+import net.coderbot.patchwork.hierarchy.ClassHierarchy;
+import net.coderbot.patchwork.hierarchy.HierarchyIndex;
+import net.coderbot.patchwork.mapping.CompiledMappings;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the registry an object holder belongs to from the type of its field. The type may be any
+ * subclass of a registry entry class, including classes of the mod itself.
+ *
+ * The registry of every Minecraft class is computed once up front, so only the classes of the mod
+ * between the type of a holder and Minecraft have to be walked when resolving a holder.
+ */
+public class RegistryResolver {
+	private static final String REGISTRY = "net/minecraft/util/registry/Registry";
+	private static final String DEFAULTED_REGISTRY =
+			"net/minecraft/util/registry/DefaultedRegistry";
+
+	// Registry entry classes by their srg name, with the field holding their registry and the type
+	// of the field. The fields are given with intermediary names, the classes are looked up.
+	private static final Map<String, String[]> ROOTS = new HashMap<>();
+
+	static {
+		ROOTS.put("net/minecraft/block/Block", new String[] { "field_11146", DEFAULTED_REGISTRY });
+		ROOTS.put("net/minecraft/world/biome/Biome", new String[] { "field_11153", REGISTRY });
+		ROOTS.put("net/minecraft/world/gen/surfacebuilders/SurfaceBuilder",
+				new String[] { "field_11147", REGISTRY });
+	}
+
+	private final HierarchyIndex minecraft;
+
+	// Every Minecraft class that belongs to a registry
+	private final Map<String, Registry> registries;
+
+	/**
+	 * @param minecraft The hierarchy of Minecraft, with intermediary names
+	 * @param mappings The srg -> intermediary mappings, to find the intermediary names of the
+	 *        registry classes
+	 */
+	public RegistryResolver(HierarchyIndex minecraft, CompiledMappings mappings) {
+		this.minecraft = minecraft;
+		this.registries = new HashMap<>();
+
+		String owner = mappings.getMappedClass(REGISTRY);
+
+		ROOTS.forEach((clazz, field) -> {
+			String root = mappings.getMappedClass(clazz);
+			String type = mappings.getMappedClass(field[1]);
+
+			if(owner == null || root == null || type == null) {
+				System.err.println("Object holders of " + clazz + " can't be resolved, it or its " +
+								   "registry is missing from the mappings");
+
+				return;
+			}
+
+			registries.put(root, new Registry(owner, field[0], "L" + type + ";"));
+		});
+
+		Set<String> unregistered = new HashSet<>();
+
+		for(String clazz : minecraft.getClasses()) {
+			computeRegistry(clazz, unregistered);
+		}
+	}
+
+	private Registry computeRegistry(String clazz, Set<String> unregistered) {
+		if(clazz == null || unregistered.contains(clazz)) {
+			return null;
+		}
+
+		Registry registry = registries.get(clazz);
+
+		if(registry != null) {
+			return registry;
+		}
+
+		registry = computeRegistry(minecraft.getSuperclass(clazz), unregistered);
+
+		for(String implemented : minecraft.getInterfaces(clazz)) {
+			if(registry != null) {
+				break;
+			}
+
+			registry = computeRegistry(implemented, unregistered);
+		}
+
+		if(registry != null) {
+			registries.put(clazz, registry);
+		} else {
+			unregistered.add(clazz);
+		}
+
+		return registry;
+	}
+
+	/**
+	 * Finds the registry of an object holder.
+	 *
+	 * @param descriptor The descriptor of the object holder field
+	 * @param mod The hierarchy of the classes of the mod
+	 * @return The registry, or <code>null</code> if the type does not belong to any known registry
+	 */
+	public Registry resolve(String descriptor, ClassHierarchy mod) {
+		if(!descriptor.startsWith("L") || !descriptor.endsWith(";")) {
+			return null;
+		}
+
+		return resolveClass(descriptor.substring(1, descriptor.length() - 1), mod);
+	}
+
+	private Registry resolveClass(String clazz, ClassHierarchy mod) {
+		if(clazz == null) {
+			return null;
+		}
+
+		Registry registry = registries.get(clazz);
+
+		if(registry != null || !mod.contains(clazz)) {
+			return registry;
+		}
+
+		registry = resolveClass(mod.getSuperclass(clazz), mod);
+
+		for(String implemented : mod.getInterfaces(clazz)) {
+			if(registry != null) {
+				break;
+			}
+
+			registry = resolveClass(implemented, mod);
+		}
+
+		return registry;
+	}
+
+	public static class Registry {
+		private final String owner;
+		private final String field;
+		private final String type;
+
+		Registry(String owner, String field, String type) {
+			this.owner = owner;
+			this.field = field;
+			this.type = type;
+		}
+
+		/**
+		 * @return The intermediary name of net.minecraft.util.Registry, which holds the registries
+		 */
+		public String getOwner() {
+			return owner;
+		}
+
+		/**
+		 * @return The name of the field of the registry in net.minecraft.util.Registry
+		 */
+		public String getField() {
+			return field;
+		}
+
+		/**
+		 * @return The descriptor of the field of the registry
+		 */
+		public String getType() {
+			return type;
+		}
+	}
+}
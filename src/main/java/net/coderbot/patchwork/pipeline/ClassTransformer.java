@@ -0,0 +1,200 @@
+package net.coderbot.patchwork.pipeline;
+
+import net.coderbot.patchwork.access.AccessTransformation;
+import net.coderbot.patchwork.access.AccessTransformations;
+import net.coderbot.patchwork.access.AccessTransformer;
+import net.coderbot.patchwork.annotation.AnnotationCollector;
+import net.coderbot.patchwork.annotation.AnnotationProcessor;
+import net.coderbot.patchwork.annotation.ForgeAnnotationFilter;
+import net.coderbot.patchwork.event.EventHandlerScanner;
+import net.coderbot.patchwork.event.SubscribeEvent;
+import net.coderbot.patchwork.event.generator.StaticEventRegistrarGenerator;
+import net.coderbot.patchwork.event.generator.SubscribeEventGenerator;
+import net.coderbot.patchwork.objectholder.ObjectHolder;
+import net.coderbot.patchwork.objectholder.ObjectHolderGenerator;
+import net.coderbot.patchwork.objectholder.ObjectHolderScanner;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Scans a single class for annotations, strips them, and replaces them with pointers. Classes are
+ * transformed independently of each other, so any number of them can be transformed at once.
+ */
+public class ClassTransformer {
+	/**
+	 * Transforms a class. Callers are expected to copy classes rejected by
+	 * {@link ForgeAnnotationFilter#mayContainForgeAnnotations(byte[])} instead, this does not check
+	 * again.
+	 *
+	 * @param baseName The name of the class, prefixed with a / like the paths in the mod jar
+	 * @param content The remapped class file
+	 * @param timings Where to record how long the phases of the transformation take
+	 * @return The transformed class along with its shims
+	 */
+	public static TransformedClass transform(String baseName,
+			byte[] content,
+			TimingReport.Stages timings) {
+		TransformedClass result = new TransformedClass(baseName);
+
+		long start = System.nanoTime();
+
+		ClassReader reader = new ClassReader(content);
+
+		List<ObjectHolder> objectHolders = new ArrayList<>();
+		List<SubscribeEvent> subscribeEvents = new ArrayList<>();
+
+		AccessTransformations accessTransformations = new AccessTransformations();
+
+		// Phase 1: Collect the annotation data without looking at any code. The access
+		// transformations depend on this, so it has to be done before the class is written.
+
+		ObjectHolderScanner objectHolderScanner = new ObjectHolderScanner(null, holder -> {
+			objectHolders.add(holder);
+
+			accessTransformations.addFieldTransformation(
+					holder.getField(), AccessTransformation.DEFINALIZE);
+		});
+
+		EventHandlerScanner eventHandlerScanner = new EventHandlerScanner(
+				objectHolderScanner,
+				subscriber
+				-> {
+					// System.out.println(subscriber);
+
+					result.addEventBusSubscriber(subscriber);
+				},
+				subscribeEvent -> {
+					// System.out.println(subscribeEvent);
+
+					subscribeEvents.add(subscribeEvent);
+
+					accessTransformations.setClassTransformation(AccessTransformation.MAKE_PUBLIC);
+
+					accessTransformations.addMethodTransformation(subscribeEvent.getMethod(),
+							subscribeEvent.getMethodDescriptor(),
+							AccessTransformation.MAKE_PUBLIC);
+				});
+
+		AnnotationCollector collector = new AnnotationCollector(eventHandlerScanner);
+
+		reader.accept(collector, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+
+		long scanned = timings.lap("transform/scan", start);
+
+		if(!collector.isAnnotated()) {
+			// Nothing to strip, rewrite or generate, so the class is passed through as is
+			result.setContent(content);
+
+			return result;
+		}
+
+		// Phase 2: Strip and rewrite the annotations while applying the access transformations.
+		// Handing the reader to the writer lets ASM copy the code of every method that reaches
+		// the writer unchanged, so only annotated methods go through the scanners.
+
+		Consumer<String> modConsumer = modId -> {
+			System.out.println("Class " + baseName + " has @Mod annotation: " + modId);
+
+			result.setModClass(true);
+		};
+
+		ClassWriter writer = new ClassWriter(reader, 0);
+		AccessTransformer accessTransformer = new AccessTransformer(writer, accessTransformations);
+
+		// The scanners already reported everything in phase 1, here they only strip annotations
+		ClassVisitor stripper = new EventHandlerScanner(
+				new ObjectHolderScanner(
+						new AnnotationProcessor(accessTransformer, modConsumer), holder -> {}),
+				subscriber -> {},
+				subscribeEvent -> {});
+
+		reader.accept(new MethodRouter(stripper, accessTransformer, collector), 0);
+		result.setContent(writer.toByteArray());
+
+		long rewritten = timings.lap("transform/rewrite", scanned);
+
+		objectHolders.forEach(entry -> {
+			ClassWriter shimWriter = new ClassWriter(0);
+			String shimName = ObjectHolderGenerator.generate(baseName, entry, shimWriter);
+
+			result.addObjectHolderEntry(new AbstractMap.SimpleImmutableEntry<>(shimName, entry));
+			result.addGeneratedClass(shimName, shimWriter.toByteArray());
+		});
+
+		HashMap<String, SubscribeEvent> subscribeEventShims = new HashMap<>();
+
+		subscribeEvents.forEach(entry -> {
+			ClassWriter shimWriter = new ClassWriter(0);
+
+			if((entry.getAccess() & Opcodes.ACC_STATIC) == 0) {
+				System.err.println("Instance subscribe events are not supported yet, skipping: " +
+								   baseName + "::" + entry.getMethod());
+
+				return;
+			}
+
+			String shimName = SubscribeEventGenerator.generate(baseName, entry, shimWriter);
+
+			if(subscribeEventShims.containsKey(shimName)) {
+				throw new UnsupportedOperationException(
+						"FIXME: Two @SubscribeEvent shims have the same name! This should be handled by Patchwork, it's a bug!");
+			}
+
+			subscribeEventShims.put(shimName, entry);
+
+			result.addGeneratedClass(shimName, shimWriter.toByteArray());
+		});
+
+		if(!subscribeEventShims.isEmpty()) {
+			ClassWriter shimWriter = new ClassWriter(0);
+			String shimName = StaticEventRegistrarGenerator.generate(
+					baseName, subscribeEventShims.entrySet(), shimWriter);
+
+			result.addGeneratedClass(shimName, shimWriter.toByteArray());
+			result.setStaticEventRegistrar(shimName);
+		}
+
+		timings.lap("transform/shim generation", rewritten);
+
+		return result;
+	}
+
+	/**
+	 * Sends methods without annotations straight to the access transformer, bypassing the
+	 * annotation scanners
+	 */
+	private static class MethodRouter extends ClassVisitor {
+		private ClassVisitor direct;
+		private AnnotationCollector collector;
+
+		MethodRouter(ClassVisitor parent, ClassVisitor direct, AnnotationCollector collector) {
+			super(Opcodes.ASM7, parent);
+
+			this.direct = direct;
+			this.collector = collector;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access,
+				String name,
+				String descriptor,
+				String signature,
+				String[] exceptions) {
+			if(collector.isAnnotated(name, descriptor)) {
+				return super.visitMethod(access, name, descriptor, signature, exceptions);
+			}
+
+			return direct.visitMethod(access, name, descriptor, signature, exceptions);
+		}
+	}
+}
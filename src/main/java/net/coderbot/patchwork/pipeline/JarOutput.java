@@ -0,0 +1,143 @@
+package net.coderbot.patchwork.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a patched mod jar in a single pass. Resources are copied over from the input jar, while
+ * classes and generated files are written as they are produced, so the jar never has to be opened
+ * again once it is written.
+ */
+public class JarOutput implements Closeable {
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private final ZipOutputStream zip;
+
+	public JarOutput(Path path) throws IOException {
+		this.zip = new ZipOutputStream(Files.newOutputStream(path));
+	}
+
+	/**
+	 * Copies everything except classes from a jar. Signature files are dropped and the digests are
+	 * removed from the manifest, as they would not match the patched classes anymore.
+	 *
+	 * @param input The jar to copy the resources of
+	 * @param excluded Paths of resources that should not be copied, without a leading /
+	 */
+	public void copyResources(Path input, Set<String> excluded) throws IOException {
+		try(ZipFile jar = new ZipFile(input.toFile())) {
+			Enumeration<? extends ZipEntry> entries = jar.entries();
+
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String name = entry.getName();
+
+				if(name.endsWith(".class") || excluded.contains(name) || isSignature(name)) {
+					continue;
+				}
+
+				if(entry.isDirectory()) {
+					zip.putNextEntry(new ZipEntry(name));
+					zip.closeEntry();
+
+					continue;
+				}
+
+				try(InputStream in = jar.getInputStream(entry)) {
+					if(name.equals(MANIFEST)) {
+						write(name, fixManifest(in));
+					} else {
+						zip.putNextEntry(new ZipEntry(name));
+						copy(in, zip);
+						zip.closeEntry();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a class.
+	 *
+	 * @param name The name of the class, prefixed with a / like the paths in the mod jar
+	 * @param content The class file
+	 */
+	public void writeClass(String name, byte[] content) throws IOException {
+		write(name.substring(1) + ".class", content);
+	}
+
+	/**
+	 * Writes a file.
+	 *
+	 * @param name The path of the file in the jar, without a leading /
+	 * @param content The content of the file
+	 */
+	public void write(String name, byte[] content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content);
+		zip.closeEntry();
+	}
+
+	@Override
+	public void close() throws IOException {
+		zip.close();
+	}
+
+	private static boolean isSignature(String name) {
+		if(!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) {
+			return false;
+		}
+
+		return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") ||
+				name.endsWith(".EC");
+	}
+
+	private static byte[] fixManifest(InputStream in) throws IOException {
+		Manifest manifest = new Manifest(in);
+
+		manifest.getMainAttributes().remove(Attributes.Name.SIGNATURE_VERSION);
+
+		Iterator<Attributes> entries = manifest.getEntries().values().iterator();
+
+		while(entries.hasNext()) {
+			Attributes attributes = entries.next();
+
+			attributes.keySet().removeIf(key -> {
+				String name = key.toString();
+
+				return name.endsWith("-Digest") || name.contains("-Digest-") || name.equals("Magic");
+			});
+
+			if(attributes.isEmpty()) {
+				entries.remove();
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manifest.write(out);
+
+		return out.toByteArray();
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		int read;
+
+		while((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+	}
+}
@@ -0,0 +1,602 @@
+package net.coderbot.patchwork.pipeline;
+
+import net.coderbot.patchwork.annotation.ForgeAnnotationFilter;
+import net.coderbot.patchwork.cache.ClassCache;
+import net.coderbot.patchwork.cache.ModCache;
+import net.coderbot.patchwork.event.EventBusSubscriber;
+import net.coderbot.patchwork.hierarchy.ClassHierarchy;
+import net.coderbot.patchwork.hierarchy.HierarchyIndex;
+import net.coderbot.patchwork.manifest.converter.ModManifestConverter;
+import net.coderbot.patchwork.manifest.forge.ModManifest;
+import net.coderbot.patchwork.mapping.CompiledMappings;
+import net.coderbot.patchwork.mapping.ModRemapper;
+import net.coderbot.patchwork.objectholder.ForgeInitializerGenerator;
+import net.coderbot.patchwork.objectholder.ObjectHolder;
+import net.coderbot.patchwork.objectholder.RegistryResolver;
+import net.coderbot.patchwork.tasking.ResourcePool;
+import net.coderbot.patchwork.tasking.ResultTask;
+import net.coderbot.patchwork.tasking.Task;
+import net.coderbot.patchwork.tasking.TaskScheduler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.electronwill.nightconfig.core.file.FileConfig;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Patches a single mod jar. The work is split up into tasks forming the following graph, so that
+ * many mods and the classes of large mods can be patched at the same time, and a failing mod
+ * does not affect the others:
+ *
+ * <pre>
+ * lookup -+-> remap -------+-> transform#0 -\
+ *         +-> class cache -+-> ...         -+-> write
+ *         |                +-> transform#n -/
+ *         +-> manifest ----------------------/
+ * </pre>
+ *
+ * Every task hands its result straight to the tasks depending on it, nothing is shared between
+ * the tasks apart from that.
+ *
+ * If the lookup finds the patched jar in the cache, the other tasks do nothing. Otherwise, classes
+ * that did not change since the mod was last patched are taken from the class cache instead of
+ * being transformed again.
+ */
+public class ModPipeline {
+	// Resources of the Forge mod that have no place in the patched mod. A fabric.mod.json would
+	// only be there if the jar was already patched, it is replaced with the generated one.
+	private static final Set<String> EXCLUDED_RESOURCES = new HashSet<>(
+			Arrays.asList("META-INF/mods.toml", "pack.mcmeta", "fabric.mod.json"));
+
+	private final String mod;
+	private final Path input;
+	private final Path output;
+	private final CompiledMappings mappings;
+	private final HierarchyIndex classpath;
+	private final ModCache cache;
+	private final ClassCache classCache;
+	private final RegistryResolver registries;
+	private final ResourcePool memory;
+	private final TimingReport.Stages timings;
+
+	private volatile boolean cached;
+	private volatile long startedAt;
+
+	private JarOutput jarOutput;
+
+	/**
+	 * Creates the pipeline for a mod, nothing is run until it is scheduled.
+	 *
+	 * @param mod The name of the mod, its jar is read from input/ and written to output/
+	 * @param mappings The srg -> intermediary mappings to remap the mod with
+	 * @param classpath The hierarchy of Minecraft with srg names, shared by all mods
+	 * @param cache The cache to reuse previously patched jars from
+	 * @param classCache The cache to reuse previously transformed classes from
+	 * @param registries Resolves the registries of object holders
+	 * @param memory The memory budget, in bytes, the mod is admitted from
+	 * @param timings Where to record how long patching the mod takes
+	 */
+	public ModPipeline(String mod,
+			CompiledMappings mappings,
+			HierarchyIndex classpath,
+			ModCache cache,
+			ClassCache classCache,
+			RegistryResolver registries,
+			ResourcePool memory,
+			TimingReport timings) {
+		this.mod = mod;
+		this.input = Paths.get("input/" + mod + ".jar");
+		this.output = Paths.get("output/" + mod + ".jar");
+		this.mappings = mappings;
+		this.classpath = classpath;
+		this.cache = cache;
+		this.classCache = classCache;
+		this.registries = registries;
+		this.memory = memory;
+		this.timings = timings.forMod(mod);
+	}
+
+	/**
+	 * Schedules all tasks of this pipeline, this may only be done once.
+	 *
+	 * @param scheduler The scheduler to run the tasks on
+	 * @return The last task of the pipeline, it completes once the mod has been patched or failed
+	 *         to be patched
+	 */
+	public Task schedule(TaskScheduler scheduler) {
+		// The classes are split into one chunk per thread, the chunks are only assigned their
+		// classes once the remapping is done
+		int chunkCount = scheduler.getThreadCount();
+
+		Stage<String> lookup = new Stage<>("lookup", this::lookup);
+		Stage<List<Map.Entry<String, byte[]>>> remap = new Stage<>("remap", this::remap);
+		Stage<Map<String, TransformedClass>> loadClasses =
+				new Stage<>("class cache", this::loadClassCache);
+		Stage<JsonObject> manifest = new Stage<>("manifest", this::convertManifest);
+		List<Stage<Chunk>> transforms = new ArrayList<>(chunkCount);
+
+		Stage<Void> write = new Stage<>("write", () -> {
+			// Everything has been transformed by now
+			remap.release();
+			loadClasses.release();
+
+			write(lookup.getResult(), transforms, manifest.getResult());
+
+			return null;
+		});
+
+		// Rough estimates in KiB of the jar, so that the remapping of large mods starts before
+		// anything of small mods, which would otherwise finish early and leave one straggler
+		long size = getInputSize();
+
+		lookup.setCost(size);
+		remap.setCost(size);
+		write.setCost(size);
+
+		// Dependencies have to be set up before anything is scheduled
+		for(int i = 0; i < chunkCount; i++) {
+			int chunk = i;
+
+			Stage<Chunk> transform = new Stage<>("transform#" + chunk,
+					() -> transform(chunk, chunkCount, remap.getResult(), loadClasses.getResult()));
+			transform.setCost(Math.max(size / chunkCount, 1));
+			transform.after(remap, loadClasses);
+
+			transforms.add(transform);
+		}
+
+		remap.after(lookup);
+		loadClasses.after(lookup);
+		manifest.after(lookup);
+
+		Task[] writeDependencies = transforms.toArray(new Task[chunkCount + 1]);
+		writeDependencies[chunkCount] = manifest;
+		write.after(writeDependencies);
+
+		// The memory of the mod is accounted for from the moment it is looked up until it has been
+		// written, so a mod is only started once it fits into what earlier mods have left
+		long memoryNeeded = estimateMemory();
+		lookup.reserve(memory, memoryNeeded);
+
+		write.whenComplete((task, taskScheduler) -> {
+			if(task.hasFailed()) {
+				closeOutput();
+			}
+
+			memory.release(memoryNeeded);
+
+			// From the start of the lookup, time spent waiting for memory is not included
+			if(startedAt != 0) {
+				timings.lap("total", startedAt);
+			}
+		});
+
+		lookup.now(scheduler);
+
+		return write;
+	}
+
+	/**
+	 * @return The name of the mod this pipeline patches
+	 */
+	public String getMod() {
+		return mod;
+	}
+
+	/**
+	 * @return Whether the patched jar was taken from the cache, only valid once the pipeline has
+	 *         completed
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	private long getInputSize() {
+		try {
+			return Math.max(Files.size(input) / 1024, 1);
+		} catch(IOException e) {
+			// The lookup will fail and report this
+			return 1;
+		}
+	}
+
+	/**
+	 * Estimates how much memory patching the mod takes. The class data is held about four times
+	 * over: as read from the jar, remapped, transformed and as loaded from the class cache.
+	 *
+	 * @return The estimate in bytes
+	 */
+	private long estimateMemory() {
+		long classData = 0;
+
+		try(ZipFile jar = new ZipFile(input.toFile())) {
+			Enumeration<? extends ZipEntry> entries = jar.entries();
+
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if(entry.getName().endsWith(".class") && entry.getSize() > 0) {
+					classData += entry.getSize();
+				}
+			}
+		} catch(IOException e) {
+			// The lookup will fail and report this
+			return 0;
+		}
+
+		return classData * 4;
+	}
+
+	/**
+	 * @return The key of the mod in the cache
+	 */
+	private String lookup() throws IOException {
+		startedAt = System.nanoTime();
+
+		String cacheKey = cache.getKey(input);
+
+		if(cache.restore(cacheKey, output)) {
+			System.out.println("Using cached patched jar for " + mod);
+
+			cached = true;
+		}
+
+		return cacheKey;
+	}
+
+	/**
+	 * @return The remapped classes, sorted by name
+	 */
+	private List<Map.Entry<String, byte[]>> remap() throws IOException {
+		System.out.println("Remapping " + mod + " (srg -> intermediary)");
+
+		// The hierarchy of the mod has to be complete before the first class is remapped
+		List<ClassReader> classes = new ArrayList<>();
+		ClassHierarchy hierarchy = new ClassHierarchy();
+
+		long start = System.nanoTime();
+
+		try(ZipFile jar = new ZipFile(input.toFile())) {
+			Enumeration<? extends ZipEntry> entries = jar.entries();
+
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+
+				if(entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				try(InputStream in = jar.getInputStream(entry)) {
+					ClassReader reader = new ClassReader(in);
+
+					hierarchy.add(
+							reader.getClassName(), reader.getSuperName(), reader.getInterfaces());
+					classes.add(reader);
+				}
+			}
+		}
+
+		start = timings.lap("remap/inputs", start);
+
+		ModRemapper remapper = new ModRemapper(mappings, classpath, hierarchy);
+
+		// Sorted so that the output order is stable
+		Map<String, byte[]> remapped = new TreeMap<>();
+
+		for(ClassReader clazz : classes) {
+			remapped.put(remapper.map(clazz.getClassName()), remapper.remap(clazz));
+		}
+
+		timings.lap("remap/apply", start);
+
+		return new ArrayList<>(remapped.entrySet());
+	}
+
+	/**
+	 * @return The previously transformed classes of the mod, by their key in the class cache
+	 */
+	private Map<String, TransformedClass> loadClassCache() {
+		try {
+			return classCache.load(mod);
+		} catch(IOException | RuntimeException e) {
+			System.err.println("Ignoring unreadable class cache of " + mod + ": " + e);
+
+			return Collections.emptyMap();
+		}
+	}
+
+	private Chunk transform(int chunk,
+			int chunkCount,
+			List<Map.Entry<String, byte[]>> classes,
+			Map<String, TransformedClass> cachedClasses) {
+		// Every chunk transforms a contiguous range of classes, so that the output order does not
+		// depend on which chunk finishes first.
+
+		int start = (int) ((long) classes.size() * chunk / chunkCount);
+		int end = (int) ((long) classes.size() * (chunk + 1) / chunkCount);
+
+		TransformedClass[] transformed = new TransformedClass[end - start];
+		String[] classKeys = new String[end - start];
+
+		for(int i = start; i < end; i++) {
+			Map.Entry<String, byte[]> clazz = classes.get(i);
+
+			// Class names are prefixed with a / just like the paths in the mod jar
+			String name = "/" + clazz.getKey();
+			byte[] content = clazz.getValue();
+
+			// Most classes of a mod have no Forge annotations. They are copied without being
+			// parsed, which is faster than hashing them, so only the others are worth caching.
+			if(!ForgeAnnotationFilter.mayContainForgeAnnotations(content)) {
+				TransformedClass copied = new TransformedClass(name);
+				copied.setContent(content);
+
+				transformed[i - start] = copied;
+
+				continue;
+			}
+
+			String key = ClassCache.getKey(name, content);
+			TransformedClass cached = cachedClasses.get(key);
+
+			classKeys[i - start] = key;
+
+			if(cached != null) {
+				transformed[i - start] = cached;
+
+				continue;
+			}
+
+			transformed[i - start] = ClassTransformer.transform(name, content, timings);
+		}
+
+		return new Chunk(transformed, classKeys);
+	}
+
+	/**
+	 * @return The fabric.mod.json of the mod, without entrypoints
+	 */
+	private JsonObject convertManifest() throws Exception {
+		// The Path overload does not register the file system, so this can run while the remapping
+		// has the same jar open
+		try(FileSystem fs = FileSystems.newFileSystem(input, (ClassLoader) null)) {
+			FileConfig toml = FileConfig.of(fs.getPath("/META-INF/mods.toml"));
+			toml.load();
+
+			Map<String, Object> map = toml.valueMap();
+
+			System.out.println("Raw: " + map);
+
+			ModManifest manifest = ModManifest.parse(map);
+
+			// System.out.println("Parsed: " + manifest);
+
+			return ModManifestConverter.convertToFabric(manifest);
+		}
+	}
+
+	private void write(String cacheKey, List<Stage<Chunk>> transforms, JsonObject fabric)
+			throws Exception {
+		List<Map.Entry<String, ObjectHolder>> generatedObjectHolderEntries =
+				new ArrayList<>(); // shimName -> ObjectHolder
+		List<Map.Entry<String, String>> staticEventRegistrars =
+				new ArrayList<>(); // shimName -> baseName
+		List<Map.Entry<String, EventBusSubscriber>> eventBusSubscribers =
+				new ArrayList<>(); // basename -> EventBusSubscriber
+
+		String modName = null;
+		Map<String, TransformedClass> classesToCache = new HashMap<>();
+
+		long start = System.nanoTime();
+
+		// Everything goes into the output jar in one pass, it is never reopened afterwards
+		jarOutput = new JarOutput(output);
+		jarOutput.copyResources(input, EXCLUDED_RESOURCES);
+
+		long resourcesWritten = timings.lap("write/resources", start);
+
+		for(Stage<Chunk> transform : transforms) {
+			Chunk chunk = transform.getResult();
+
+			for(int i = 0; i < chunk.classes.length; i++) {
+				TransformedClass clazz = chunk.classes[i];
+				String baseName = clazz.getName();
+
+				if(chunk.keys[i] != null) {
+					classesToCache.put(chunk.keys[i], clazz);
+				}
+
+				for(Map.Entry<String, byte[]> shim : clazz.getGeneratedClasses().entrySet()) {
+					jarOutput.writeClass("/" + shim.getKey(), shim.getValue());
+				}
+
+				generatedObjectHolderEntries.addAll(clazz.getObjectHolderEntries());
+
+				for(EventBusSubscriber subscriber : clazz.getEventBusSubscribers()) {
+					eventBusSubscribers.add(
+							new AbstractMap.SimpleImmutableEntry<>(baseName, subscriber));
+				}
+
+				if(clazz.getStaticEventRegistrar() != null) {
+					staticEventRegistrars.add(new AbstractMap.SimpleImmutableEntry<>(
+							clazz.getStaticEventRegistrar(), baseName));
+				}
+
+				if(clazz.isModClass()) {
+					modName = baseName;
+				}
+
+				jarOutput.writeClass(baseName, clazz.getContent());
+			}
+		}
+
+		long classesWritten = timings.lap("write/classes", resourcesWritten);
+
+		// Object holders may be declared with any subclass of a registry entry class, including
+		// the classes of the mod itself
+		ClassHierarchy modClasses = new ClassHierarchy();
+
+		if(!generatedObjectHolderEntries.isEmpty()) {
+			for(Stage<Chunk> transform : transforms) {
+				for(TransformedClass clazz : transform.getResult().classes) {
+					modClasses.add(clazz.getContent());
+				}
+			}
+		}
+
+		// The transformed classes are not needed anymore
+		for(Stage<Chunk> transform : transforms) {
+			transform.release();
+		}
+
+		ClassWriter initializerWriter = new ClassWriter(0);
+
+		String initializerName = "patchwork_generated" + modName + "Initializer";
+		ForgeInitializerGenerator.generate(modName,
+				initializerName,
+				staticEventRegistrars,
+				eventBusSubscribers,
+				generatedObjectHolderEntries,
+				registries,
+				modClasses,
+				initializerWriter);
+
+		jarOutput.writeClass("/" + initializerName, initializerWriter.toByteArray());
+
+		long initializerWritten = timings.lap("write/initializer", classesWritten);
+
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+		JsonObject entrypoints = new JsonObject();
+		JsonArray entrypoint = new JsonArray();
+
+		entrypoint.add(initializerName.replace('/', '.'));
+		entrypoints.add("patchwork", entrypoint);
+
+		fabric.add("entrypoints", entrypoints);
+
+		String json = gson.toJson(fabric);
+
+		jarOutput.write("fabric.mod.json", json.getBytes(StandardCharsets.UTF_8));
+
+		System.out.println(json);
+
+		jarOutput.close();
+
+		long jarWritten = timings.lap("write/fabric.mod.json", initializerWritten);
+
+		try {
+			cache.store(cacheKey, output);
+		} catch(IOException e) {
+			// The mod itself was patched fine, it will just be patched again next time
+			System.err.println("Failed to cache the patched jar of " + mod + ": " + e);
+		}
+
+		try {
+			classCache.store(mod, classesToCache);
+		} catch(IOException e) {
+			System.err.println("Failed to cache the transformed classes of " + mod + ": " + e);
+		}
+
+		timings.lap("write/cache", jarWritten);
+
+		// Late entrypoints
+		// https://github.com/CottonMC/Cotton/blob/master/modules/cotton-datapack/src/main/java/io/github/cottonmc/cotton/datapack/mixins/MixinCottonInitializerServer.java
+	}
+
+	private void closeOutput() {
+		if(jarOutput == null) {
+			return;
+		}
+
+		try {
+			jarOutput.close();
+		} catch(IOException ignored) {
+			// Nothing useful can be done here, the mod has already failed
+		}
+
+		try {
+			// A half written jar is of no use to anyone
+			Files.deleteIfExists(output);
+		} catch(IOException ignored) {
+		}
+	}
+
+	/**
+	 * The classes transformed by one transform task, in the same order as the remapped classes
+	 */
+	private static class Chunk {
+		private final TransformedClass[] classes;
+
+		// The keys of the classes in the class cache, null for classes that are not cached
+		private final String[] keys;
+
+		Chunk(TransformedClass[] classes, String[] keys) {
+			this.classes = classes;
+			this.keys = keys;
+		}
+	}
+
+	/**
+	 * A single step of the pipeline, failures are reported on stderr as they happen
+	 */
+	private class Stage<T> extends ResultTask<T> {
+		private final String name;
+		private final Callable<T> action;
+
+		Stage(String name, Callable<T> action) {
+			this.name = name;
+			this.action = action;
+
+			whenComplete((task, scheduler) -> {
+				if(task.getError() != null) {
+					System.err.println("Transformation of " + mod + " failed while running " +
+									   this + ":");
+
+					task.getError().printStackTrace();
+				}
+			});
+		}
+
+		@Override
+		protected T compute() throws Exception {
+			// Only the lookup sets this, and everything else runs after it
+			if(cached) {
+				return null;
+			}
+
+			long start = System.nanoTime();
+
+			try {
+				return action.call();
+			} finally {
+				timings.lap(getType(), start);
+			}
+		}
+
+		@Override
+		public String getType() {
+			// All transform chunks are the same kind of work
+			int chunk = name.indexOf('#');
+
+			return chunk == -1 ? name : name.substring(0, chunk);
+		}
+
+		@Override
+		public String toString() {
+			return name + "(" + mod + ")";
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package net.coderbot.patchwork.pipeline;
+
+import net.coderbot.patchwork.tasking.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects how long each stage of patching takes, for every mod on its own and for the work done
+ * once for the whole batch. Sub-stages are named after their stage, separated by a /, for example
+ * remap/apply.
+ *
+ * The report has the following sections, all durations are in milliseconds:
+ *
+ * <pre>
+ * batch:  stage -> durations of the work done once, such as loading the mappings
+ * stages: stage -> the time each mod spent in the stage, one sample per mod
+ * mods:   mod -> stage -> durations, stages running once per class are sampled per class
+ * </pre>
+ */
+public class TimingReport {
+	private final long createdAt;
+	private final Stages batch;
+	private final Map<String, Stages> mods;
+
+	public TimingReport() {
+		this.createdAt = System.nanoTime();
+		this.batch = new Stages();
+		this.mods = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @return The timings of the work done once for all mods
+	 */
+	public Stages getBatch() {
+		return batch;
+	}
+
+	/**
+	 * @return The timings of a single mod
+	 */
+	public Stages forMod(String mod) {
+		return mods.computeIfAbsent(mod, name -> new Stages());
+	}
+
+	/**
+	 * @return A snapshot of the report
+	 */
+	public JsonObject toJson() {
+		Map<String, Stages> sortedMods = new TreeMap<>(mods);
+
+		// Every mod contributes the total time it spent in a stage as a single sample
+		Map<String, Histogram> acrossMods = new TreeMap<>();
+
+		sortedMods.values().forEach(
+				stages -> stages.durations.forEach((stage, durations) -> {
+					acrossMods.computeIfAbsent(stage, name -> new Histogram())
+							.record(durations.getSum());
+				}));
+
+		JsonObject stages = new JsonObject();
+		acrossMods.forEach((stage, durations) -> stages.add(stage, durations.toJson()));
+
+		JsonObject modsJson = new JsonObject();
+		sortedMods.forEach((mod, modStages) -> modsJson.add(mod, modStages.toJson()));
+
+		JsonObject json = new JsonObject();
+		json.addProperty("elapsed_ms", Histogram.toMillis(System.nanoTime() - createdAt));
+		json.add("batch", batch.toJson());
+		json.add("stages", stages);
+		json.add("mods", modsJson);
+
+		return json;
+	}
+
+	/**
+	 * Writes the report to a file as JSON.
+	 *
+	 * @param file The file to write to, it is replaced if it exists
+	 */
+	public void write(Path file) throws IOException {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+		if(file.toAbsolutePath().getParent() != null) {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+		}
+
+		try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			gson.toJson(toJson(), writer);
+		}
+	}
+
+	/**
+	 * The durations of the stages of a mod or the batch, safe to record from any thread
+	 */
+	public static class Stages {
+		private final Map<String, Histogram> durations = new ConcurrentHashMap<>();
+
+		/**
+		 * Records a duration of a stage.
+		 *
+		 * @param stage The name of the stage
+		 * @param nanos The duration in nanoseconds
+		 */
+		public void record(String stage, long nanos) {
+			durations.computeIfAbsent(stage, name -> new Histogram()).record(nanos);
+		}
+
+		/**
+		 * Records the duration of a stage that started at a point in time and ends now, for timing
+		 * consecutive stages.
+		 *
+		 * @param stage The name of the stage
+		 * @param since When the stage started, as returned by {@link System#nanoTime()}
+		 * @return The current time, when the next stage starts
+		 */
+		public long lap(String stage, long since) {
+			long now = System.nanoTime();
+			record(stage, now - since);
+
+			return now;
+		}
+
+		/**
+		 * Prints the total time spent in every stage, one stage per line.
+		 *
+		 * @param out Where to print the stages to
+		 */
+		public void print(PrintStream out) {
+			new TreeMap<>(durations).forEach((stage, histogram) -> {
+				out.println(stage + ": " + Histogram.toMillis(histogram.getSum()) + "ms");
+			});
+		}
+
+		JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			new TreeMap<>(durations).forEach(
+					(stage, histogram) -> json.add(stage, histogram.toJson()));
+
+			return json;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package net.coderbot.patchwork.pipeline;
+
+import net.coderbot.patchwork.event.EventBusSubscriber;
+import net.coderbot.patchwork.objectholder.ObjectHolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of transforming a single class: the transformed class itself, the shims generated
+ * for it and everything the mod initializer needs to know about it.
+ */
+public class TransformedClass {
+	private final String name;
+	private byte[] content;
+	private boolean modClass;
+
+	private final Map<String, byte[]> generatedClasses;
+	private final List<Map.Entry<String, ObjectHolder>> objectHolderEntries;
+	private final List<EventBusSubscriber> eventBusSubscribers;
+	private String staticEventRegistrar;
+
+	TransformedClass(String name) {
+		this.name = name;
+
+		this.generatedClasses = new LinkedHashMap<>();
+		this.objectHolderEntries = new ArrayList<>();
+		this.eventBusSubscribers = new ArrayList<>();
+	}
+
+	/**
+	 * @return The name of the class, prefixed with a / like the paths in the mod jar
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * @return Whether the class is annotated with @Mod
+	 */
+	public boolean isModClass() {
+		return modClass;
+	}
+
+	/**
+	 * @return The shims generated for this class (shimName -> class file), in generation order
+	 */
+	public Map<String, byte[]> getGeneratedClasses() {
+		return Collections.unmodifiableMap(generatedClasses);
+	}
+
+	/**
+	 * @return The object holders of this class (shimName -> ObjectHolder)
+	 */
+	public List<Map.Entry<String, ObjectHolder>> getObjectHolderEntries() {
+		return Collections.unmodifiableList(objectHolderEntries);
+	}
+
+	public List<EventBusSubscriber> getEventBusSubscribers() {
+		return Collections.unmodifiableList(eventBusSubscribers);
+	}
+
+	/**
+	 * @return The name of the generated static event registrar, or <code>null</code> if this
+	 *         class has no static @SubscribeEvent methods
+	 */
+	public String getStaticEventRegistrar() {
+		return staticEventRegistrar;
+	}
+
+	void setContent(byte[] content) {
+		this.content = content;
+	}
+
+	void setModClass(boolean modClass) {
+		this.modClass = modClass;
+	}
+
+	void addGeneratedClass(String name, byte[] content) {
+		generatedClasses.put(name, content);
+	}
+
+	void addObjectHolderEntry(Map.Entry<String, ObjectHolder> entry) {
+		objectHolderEntries.add(entry);
+	}
+
+	void addEventBusSubscriber(EventBusSubscriber subscriber) {
+		eventBusSubscribers.add(subscriber);
+	}
+
+	void setStaticEventRegistrar(String staticEventRegistrar) {
+		this.staticEventRegistrar = staticEventRegistrar;
+	}
+
+	/**
+	 * Writes this class and everything generated for it, so that it can be cached.
+	 *
+	 * @see TransformedClass#read(DataInput)
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeUTF(name);
+		writeBytes(out, content);
+		out.writeBoolean(modClass);
+
+		out.writeInt(generatedClasses.size());
+
+		for(Map.Entry<String, byte[]> entry : generatedClasses.entrySet()) {
+			out.writeUTF(entry.getKey());
+			writeBytes(out, entry.getValue());
+		}
+
+		out.writeInt(objectHolderEntries.size());
+
+		for(Map.Entry<String, ObjectHolder> entry : objectHolderEntries) {
+			ObjectHolder holder = entry.getValue();
+
+			out.writeUTF(entry.getKey());
+			writeString(out, holder.getField());
+			writeString(out, holder.getDescriptor());
+			writeString(out, holder.getNamespace());
+			writeString(out, holder.getName());
+		}
+
+		out.writeInt(eventBusSubscribers.size());
+
+		for(EventBusSubscriber subscriber : eventBusSubscribers) {
+			writeString(out, subscriber.getTargetModId());
+			out.writeBoolean(subscriber.isClient());
+			out.writeBoolean(subscriber.isServer());
+			out.writeUTF(subscriber.getBus().name());
+		}
+
+		writeString(out, staticEventRegistrar);
+	}
+
+	/**
+	 * Reads a class written by {@link TransformedClass#write(DataOutput)}.
+	 */
+	public static TransformedClass read(DataInput in) throws IOException {
+		TransformedClass clazz = new TransformedClass(in.readUTF());
+
+		clazz.content = readBytes(in);
+		clazz.modClass = in.readBoolean();
+
+		int generatedClasses = in.readInt();
+
+		for(int i = 0; i < generatedClasses; i++) {
+			clazz.generatedClasses.put(in.readUTF(), readBytes(in));
+		}
+
+		int objectHolderEntries = in.readInt();
+
+		for(int i = 0; i < objectHolderEntries; i++) {
+			String shimName = in.readUTF();
+			ObjectHolder holder = new ObjectHolder(
+					readString(in), readString(in), readString(in), readString(in));
+
+			clazz.objectHolderEntries.add(new AbstractMap.SimpleImmutableEntry<>(shimName, holder));
+		}
+
+		int eventBusSubscribers = in.readInt();
+
+		for(int i = 0; i < eventBusSubscribers; i++) {
+			clazz.eventBusSubscribers.add(new EventBusSubscriber(readString(in),
+					in.readBoolean(),
+					in.readBoolean(),
+					EventBusSubscriber.Bus.valueOf(in.readUTF())));
+		}
+
+		clazz.staticEventRegistrar = readString(in);
+
+		return clazz;
+	}
+
+	private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		return bytes;
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+
+		if(value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
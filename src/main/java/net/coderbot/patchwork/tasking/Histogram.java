@@ -0,0 +1,115 @@
+package net.coderbot.patchwork.tasking;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Records the distribution of durations without locking. Durations are sorted into buckets by
+ * their highest set bit, so percentiles are only accurate to a factor of two, which is plenty to
+ * tell where time goes.
+ */
+public class Histogram {
+	private final LongAdder[] buckets;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final LongAccumulator max;
+
+	public Histogram() {
+		buckets = new LongAdder[64];
+
+		for(int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param nanos The duration in nanoseconds, negative durations are recorded as 0
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(nanos, 0);
+
+		// Bucket i holds the durations below 2^i
+		buckets[Math.min(64 - Long.numberOfLeadingZeros(nanos), buckets.length - 1)].increment();
+		count.increment();
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return The sum of all recorded durations in nanoseconds
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return The longest recorded duration in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Estimates a percentile of the recorded durations.
+	 *
+	 * @param percentile The percentile, between 0 and 1
+	 * @return An upper bound of the percentile in nanoseconds, at most twice the actual value
+	 */
+	public long getPercentile(double percentile) {
+		long total = getCount();
+		long rank = (long) Math.ceil(total * percentile);
+		long seen = 0;
+
+		for(int i = 0; i < buckets.length; i++) {
+			seen += buckets[i].sum();
+
+			if(seen >= rank && seen > 0) {
+				long bound = i == 0 ? 0 : (1L << Math.min(i, 62)) - 1;
+
+				return Math.min(bound, getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * @return The count and the distribution of the durations, in milliseconds
+	 */
+	public JsonObject toJson() {
+		long count = getCount();
+
+		JsonObject json = new JsonObject();
+		json.addProperty("count", count);
+		json.addProperty("total_ms", toMillis(getSum()));
+		json.addProperty("mean_ms", count == 0 ? 0 : toMillis(getSum() / count));
+		json.addProperty("p50_ms", toMillis(getPercentile(0.5)));
+		json.addProperty("p90_ms", toMillis(getPercentile(0.9)));
+		json.addProperty("p99_ms", toMillis(getPercentile(0.99)));
+		json.addProperty("max_ms", toMillis(getMax()));
+
+		return json;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds, rounded to three decimals to keep reports readable.
+	 *
+	 * @param nanos The duration in nanoseconds
+	 * @return The duration in milliseconds
+	 */
+	public static double toMillis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+}
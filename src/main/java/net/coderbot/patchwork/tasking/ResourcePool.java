@@ -0,0 +1,143 @@
+package net.coderbot.patchwork.tasking;
+
+import net.coderbot.patchwork.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * A limited amount of some resource, such as bytes of class data in memory, that tasks reserve
+ * before they run. A task whose reservation does not fit is held back until enough of the
+ * resource has been released, instead of being scheduled.
+ *
+ * Nothing is released automatically, as the resource is usually held well beyond the task that
+ * reserved it, for example until the last task working on a mod has completed.
+ *
+ * @see Task#reserve(ResourcePool, long)
+ */
+public class ResourcePool {
+	// The most important task first, ties are admitted in the order they arrived in
+	private static final Comparator<Waiting> ORDER =
+			Comparator.comparingLong((Waiting waiting) -> -waiting.priority)
+					.thenComparingLong(waiting -> waiting.order);
+
+	private final String name;
+	private final long capacity;
+
+	// Everything below is guarded by this
+	private final Queue<Waiting> waiting;
+	private long available;
+	private long arrivals;
+
+	/**
+	 * Creates a new pool
+	 *
+	 * @param name The name of the resource, used for logging
+	 * @param capacity The amount of the resource available in total
+	 * @throws IllegalArgumentException If the capacity is less than 1
+	 */
+	public ResourcePool(String name, long capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException(
+					"The capacity of a resource pool must be at least 1");
+		}
+
+		this.name = name;
+		this.capacity = capacity;
+		this.waiting = new PriorityQueue<>(ORDER);
+		this.available = capacity;
+	}
+
+	/**
+	 * Determines the amount of the resource available in total.
+	 *
+	 * @return The capacity of this pool
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Determines the amount of the resource not reserved by any task.
+	 *
+	 * @return The amount available right now
+	 */
+	public synchronized long getAvailable() {
+		return available;
+	}
+
+	/**
+	 * Reserves the amount a task needs if it is available and no other task is waiting for the
+	 * resource, otherwise the task waits until {@link ResourcePool#release(long)} admits it.
+	 *
+	 * @param task The task to reserve the resource for
+	 * @param scheduler The scheduler to schedule the task to once it is admitted
+	 * @return <code>true</code> if the task can be scheduled right away, <code>false</code> if it
+	 *         has to wait
+	 */
+	synchronized boolean tryReserve(Task task, TaskScheduler scheduler) {
+		long amount = clamp(task.reservedAmount);
+
+		if(waiting.isEmpty() && available >= amount) {
+			available -= amount;
+			return true;
+		}
+
+		Logger.getInstance().debug("Task %s is waiting for %d of %s (%d of %d available)",
+				task, amount, name, available, capacity);
+
+		waiting.add(new Waiting(task, scheduler, arrivals++));
+		return false;
+	}
+
+	/**
+	 * Returns a previously reserved amount to this pool and schedules the waiting tasks that fit
+	 * now.
+	 *
+	 * @param amount The amount to release, the same as the amount that was reserved
+	 */
+	public void release(long amount) {
+		List<Waiting> admitted = new ArrayList<>();
+
+		synchronized(this) {
+			available = Math.min(available + clamp(amount), capacity);
+
+			// Strictly in order, so that a large reservation is not starved by smaller ones
+			while(!waiting.isEmpty() && available >= clamp(waiting.peek().task.reservedAmount)) {
+				Waiting next = waiting.remove();
+
+				available -= clamp(next.task.reservedAmount);
+				admitted.add(next);
+			}
+		}
+
+		// Scheduling may run arbitrary code, so it happens outside of the lock
+		for(Waiting next : admitted) {
+			next.scheduler.enqueue(next.task);
+		}
+	}
+
+	private long clamp(long amount) {
+		// A reservation larger than the whole pool would never fit, it gets the whole pool instead
+		return Math.min(amount, capacity);
+	}
+
+	private static class Waiting {
+		private final Task task;
+		private final TaskScheduler scheduler;
+
+		// Taken on arrival, the queue would break if it changed later on
+		private final long priority;
+		private final long order;
+
+		private Waiting(Task task, TaskScheduler scheduler, long order) {
+			this.task = task;
+			this.scheduler = scheduler;
+			this.priority = task.getPriority();
+			this.order = order;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package net.coderbot.patchwork.tasking;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * A task producing a value, which is handed to the tasks depending on it
+ *
+ * @param <T> The type of the value
+ */
+public abstract class ResultTask<T> extends Task {
+	private volatile T result;
+
+	/**
+	 * Creates a new task computing its value with a specific Callable
+	 *
+	 * @param callable The Callable computing the value
+	 * @param <T> The type of the value
+	 * @return The task, it still needs to be scheduled
+	 */
+	public static <T> ResultTask<T> of(Callable<? extends T> callable) {
+		Objects.requireNonNull(callable, "callable cannot be null");
+
+		return new ResultTask<T>() {
+			@Override
+			protected T compute() throws Exception {
+				return callable.call();
+			}
+		};
+	}
+
+	/**
+	 * Creates a task that takes the value of a future once it completes. The task schedules itself
+	 * and fails if the future completes exceptionally.
+	 *
+	 * @param future The future to take the value from
+	 * @param scheduler The scheduler to schedule the task to
+	 * @param <T> The type of the value
+	 * @return The task
+	 */
+	public static <T> ResultTask<T> fromFuture(CompletableFuture<? extends T> future,
+			TaskScheduler scheduler) {
+		ResultTask<T> task = new ResultTask<T>() {
+			@Override
+			protected T compute() throws Exception {
+				try {
+					// Only scheduled once the future has completed, so this never blocks
+					return future.join();
+				} catch(CompletionException e) {
+					if(e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+
+					throw e;
+				}
+			}
+		};
+
+		future.whenComplete((value, error) -> task.now(scheduler));
+
+		return task;
+	}
+
+	/**
+	 * Creates a task that runs after this one, computing its value from the value of this task.
+	 *
+	 * @param function The function computing the value of the new task
+	 * @param <R> The type of the value of the new task
+	 * @return The new task, it is scheduled once this task succeeds
+	 */
+	public <R> ResultTask<R> then(Function<? super T, ? extends R> function) {
+		Objects.requireNonNull(function, "function cannot be null");
+
+		ResultTask<R> task = new ResultTask<R>() {
+			@Override
+			protected R compute() {
+				return function.apply(ResultTask.this.getResult());
+			}
+		};
+
+		task.after(this);
+
+		return task;
+	}
+
+	/**
+	 * Creates a future which completes with the value of this task, or exceptionally if this task
+	 * fails.
+	 *
+	 * @return The future
+	 */
+	public CompletableFuture<T> toFuture() {
+		CompletableFuture<T> future = new CompletableFuture<>();
+
+		whenComplete((task, scheduler) -> {
+			if(!task.hasFailed()) {
+				future.complete(result);
+			} else if(task.getError() != null) {
+				future.completeExceptionally(task.getError());
+			} else {
+				String message = "Task " + task + " failed (" + task.getFailReason() + ")";
+
+				if(task.getErrorMessage() != null) {
+					message += ": " + task.getErrorMessage();
+				}
+
+				future.completeExceptionally(new IllegalStateException(message));
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Retrieves the value of this task.
+	 *
+	 * @return The value computed by this task
+	 * @throws IllegalStateException If this task did not succeed
+	 */
+	public final T getResult() {
+		if(getState() != TaskState.SUCCEEDED) {
+			throw new IllegalStateException(
+					"Task " + this + " has no result, it is in state " + getState().name());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Drops the value of this task once nothing needs it anymore, so that it can be garbage
+	 * collected even while this task is still referenced.
+	 */
+	public final void release() {
+		result = null;
+	}
+
+	@Override
+	protected final void run() {
+		try {
+			result = compute();
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new IllegalStateException("Failed to run " + this, e);
+		}
+	}
+
+	/**
+	 * Computes the value of this task. Values of dependencies can be retrieved with
+	 * {@link ResultTask#getResult()}, as they have all succeeded when this is called.
+	 *
+	 * @return The value of this task
+	 * @throws Exception If computing the value failed, which fails this task
+	 */
+	protected abstract T compute() throws Exception;
+}
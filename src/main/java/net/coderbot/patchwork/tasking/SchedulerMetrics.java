@@ -0,0 +1,177 @@
+package net.coderbot.patchwork.tasking;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Counts what a {@link TaskScheduler} does and how long it takes. Everything is recorded without
+ * locking and can be read at any time, including while tasks are still running.
+ *
+ * Run times are recorded per type of task, see {@link Task#getType()}.
+ */
+public class SchedulerMetrics {
+	private final int threadCount;
+	private final long createdAt;
+
+	private final LongAdder scheduled;
+	private final LongAdder started;
+	private final LongAdder succeeded;
+	private final LongAdder failed;
+	private final LongAdder dependencyFailed;
+	private final LongAdder stolen;
+	private final LongAdder parked;
+	private final LongAdder busyTime;
+
+	private final Histogram queueLatency;
+	private final Map<String, Histogram> runTimes;
+
+	SchedulerMetrics(int threadCount) {
+		this.threadCount = threadCount;
+		this.createdAt = System.nanoTime();
+
+		scheduled = new LongAdder();
+		started = new LongAdder();
+		succeeded = new LongAdder();
+		failed = new LongAdder();
+		dependencyFailed = new LongAdder();
+		stolen = new LongAdder();
+		parked = new LongAdder();
+		busyTime = new LongAdder();
+
+		queueLatency = new Histogram();
+		runTimes = new ConcurrentHashMap<>();
+	}
+
+	void taskQueued(Task task) {
+		task.queuedAt = System.nanoTime();
+		scheduled.increment();
+	}
+
+	/**
+	 * @return The time the task started at
+	 */
+	long taskStarted(Task task) {
+		long now = System.nanoTime();
+
+		queueLatency.record(now - task.queuedAt);
+		started.increment();
+
+		return now;
+	}
+
+	void taskFinished(Task task, long startedAt) {
+		long runTime = System.nanoTime() - startedAt;
+
+		if(task.hasFailed()) {
+			failed.increment();
+		} else {
+			succeeded.increment();
+		}
+
+		busyTime.add(runTime);
+		runTimes.computeIfAbsent(task.getType(), type -> new Histogram()).record(runTime);
+	}
+
+	void taskDependencyFailed() {
+		dependencyFailed.increment();
+	}
+
+	void taskStolen() {
+		stolen.increment();
+	}
+
+	void threadParked() {
+		parked.increment();
+	}
+
+	/**
+	 * @return The amount of tasks that have been queued but not started yet
+	 */
+	public long getQueued() {
+		return scheduled.sum() - started.sum();
+	}
+
+	/**
+	 * @return The amount of tasks running right now
+	 */
+	public long getRunning() {
+		return started.sum() - succeeded.sum() - failed.sum();
+	}
+
+	/**
+	 * Determines how much of the time the task threads have spent running tasks since the
+	 * scheduler was created.
+	 *
+	 * @return The utilization between 0 and 1
+	 */
+	public double getUtilization() {
+		long elapsed = System.nanoTime() - createdAt;
+
+		if(elapsed <= 0 || threadCount == 0) {
+			return 0;
+		}
+
+		return Math.min((double) busyTime.sum() / elapsed / threadCount, 1);
+	}
+
+	/**
+	 * @return A snapshot of all metrics, durations are in milliseconds
+	 */
+	public JsonObject toJson() {
+		JsonObject tasks = new JsonObject();
+		tasks.addProperty("scheduled", scheduled.sum());
+		tasks.addProperty("queued", getQueued());
+		tasks.addProperty("running", getRunning());
+		tasks.addProperty("succeeded", succeeded.sum());
+		tasks.addProperty("failed", failed.sum());
+		tasks.addProperty("dependency_failed", dependencyFailed.sum());
+		tasks.addProperty("stolen", stolen.sum());
+
+		JsonObject threads = new JsonObject();
+		threads.addProperty("count", threadCount);
+		threads.addProperty("busy_ms", Histogram.toMillis(busyTime.sum()));
+		threads.addProperty("utilization", Math.round(getUtilization() * 1000) / 1000.0);
+		threads.addProperty("parked", parked.sum());
+
+		// Sorted, so that runs can be compared easily
+		JsonObject types = new JsonObject();
+		new TreeMap<>(runTimes).forEach((type, histogram) -> types.add(type, histogram.toJson()));
+
+		JsonObject json = new JsonObject();
+		json.addProperty("elapsed_ms", Histogram.toMillis(System.nanoTime() - createdAt));
+		json.add("tasks", tasks);
+		json.add("threads", threads);
+		json.add("queue_latency", queueLatency.toJson());
+		json.add("run_time", types);
+
+		return json;
+	}
+
+	/**
+	 * Writes a snapshot of all metrics to a file as JSON.
+	 *
+	 * @param file The file to write to, it is replaced if it exists
+	 */
+	public void write(Path file) throws IOException {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+		if(file.toAbsolutePath().getParent() != null) {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+		}
+
+		try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			gson.toJson(toJson(), writer);
+		}
+	}
+}
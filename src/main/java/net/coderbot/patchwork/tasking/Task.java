@@ -1,32 +1,65 @@
 package net.coderbot.patchwork.tasking;
 
+import net.coderbot.patchwork.logging.LogLevel;
 import net.coderbot.patchwork.logging.Logger;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 
 /**
  * Base class for all kinds of different tasks
+ *
+ * Every task has a priority, which is the length of the longest chain of tasks starting with it:
+ * its own cost plus the largest priority of the tasks depending on it. The scheduler runs the
+ * tasks with the highest priority first, so that the work everything else waits on starts early.
+ *
+ * No locks are involved: the state only changes through compare and set, a task counts down its
+ * pending dependencies instead of keeping track of which ones are left, and completion callbacks
+ * are pushed onto a stack that is swapped out in one step once the task completes. Completing a
+ * task with many dependents thus takes time linear in the number of dependents.
  */
 public abstract class Task {
-	private final Object lockObject;
-	private final List<Task> dependencies;
-	private final List<BiConsumer<Task, TaskScheduler>> completionCallbacks;
+	// Marks the callback stack of a completed task, nothing can be pushed onto it anymore
+	private static final Callback COMPLETED = new Callback(null, null);
 
-	private TaskState state;
-	private TaskScheduler scheduler;
+	// Only used to pass on priority changes, completed dependencies are never removed
+	private final Queue<Task> dependencies;
+	private final AtomicReference<Callback> completionCallbacks;
 
-	private FailReason failReason;
-	private Throwable error;
-	private String errorMessage;
+	// Dependencies that have not succeeded yet, plus one while after() is still adding them
+	private final AtomicInteger pendingDependencies;
+
+	private volatile long cost;
+	private final AtomicLong dependentPriority;
+
+	// Set before the task is scheduled, the resources are reserved before the task is queued
+	volatile ResourcePool reservedPool;
+	volatile long reservedAmount;
+
+	// Set by the scheduler, so that a task does not move within a queue
+	long scheduledPriority;
+	long sequence;
+	long queuedAt;
+
+	private final AtomicReference<TaskState> state;
+	private volatile TaskScheduler scheduler;
+
+	private volatile FailReason failReason;
+	private volatile Throwable error;
+	private volatile String errorMessage;
 
 	protected Task() {
-		lockObject = new Object();
-		dependencies = new ArrayList<>();
-		completionCallbacks = new ArrayList<>();
-		state = TaskState.UNINITIALIZED;
+		dependencies = new ConcurrentLinkedQueue<>();
+		completionCallbacks = new AtomicReference<>();
+		pendingDependencies = new AtomicInteger(1);
+		cost = 1;
+		dependentPriority = new AtomicLong();
+		state = new AtomicReference<>(TaskState.UNINITIALIZED);
 	}
 
 	/**
@@ -34,7 +67,7 @@ public abstract class Task {
 	 *
 	 * @param tasks The tasks to add as dependencies
 	 * @throws IllegalArgumentException If no dependency is specified
-	 * @throws IllegalStateException If the task is not in a waiting state
+	 * @throws IllegalStateException If the task already has dependencies or has been scheduled
 	 */
 	public void after(Task ...tasks) {
 		if(tasks.length < 1) {
@@ -42,25 +75,20 @@ public abstract class Task {
 					"the task without dependencies");
 		}
 
+		changeState(TaskState.WAITING, true);
+
 		for(Task task : tasks) {
-			synchronized(task.lockObject) {
-				switch(task.state) {
-					case FAILED:
-						changeState(TaskState.FAILED, false);
-						return;
-					case SUCCEEDED:
-						continue;
-					default:
-						dependencies.add(task);
-						task.completionCallbacks.add(this::checkCompletion);
-				}
-			}
+			dependencies.add(task);
+			pendingDependencies.incrementAndGet();
+
+			// Called right away if the dependency has already completed
+			task.whenComplete(this::checkCompletion);
+			task.raisePriority(getPriority());
 		}
 
-		if(dependencies.isEmpty()) {
-			now(tasks[0].scheduler);
-		} else {
-			changeState(TaskState.WAITING, true);
+		// Every dependency may have succeeded while they were being added
+		if(pendingDependencies.decrementAndGet() == 0) {
+			scheduler.schedule(this);
 		}
 	}
 
@@ -74,6 +102,128 @@ public abstract class Task {
 		scheduler.schedule(this);
 	}
 
+	/**
+	 * Sets the estimated cost of running this task. Only the costs of tasks relative to each other
+	 * matter, the default is 1.
+	 *
+	 * @param cost The estimated cost, at least 1
+	 * @throws IllegalArgumentException If the cost is less than 1
+	 */
+	public void setCost(long cost) {
+		if(cost < 1) {
+			throw new IllegalArgumentException("The cost of a task must be at least 1");
+		}
+
+		this.cost = cost;
+
+		propagatePriority();
+	}
+
+	/**
+	 * Makes this task reserve an amount of a resource before it is run. The task is only queued
+	 * once the amount is available, and the amount stays reserved until it is released through
+	 * the pool.
+	 *
+	 * @param pool The pool to reserve the resource from
+	 * @param amount The amount to reserve
+	 * @throws IllegalArgumentException If the amount is negative
+	 * @throws IllegalStateException If the task has already been scheduled
+	 */
+	public void reserve(ResourcePool pool, long amount) {
+		Objects.requireNonNull(pool, "pool cannot be null");
+
+		if(amount < 0) {
+			throw new IllegalArgumentException("Cannot reserve a negative amount");
+		}
+
+		TaskState current = state.get();
+
+		if(current != TaskState.UNINITIALIZED && current != TaskState.WAITING) {
+			throw new IllegalStateException("Cannot reserve resources for a task in state " +
+											current.name());
+		}
+
+		this.reservedAmount = amount;
+		this.reservedPool = pool;
+	}
+
+	/**
+	 * Determines the priority of this task, the length of the longest chain of tasks starting with
+	 * it as measured by their costs.
+	 *
+	 * @return The priority of this task
+	 */
+	public final long getPriority() {
+		return cost + dependentPriority.get();
+	}
+
+	private void raisePriority(long dependent) {
+		if(dependentPriority.getAndAccumulate(dependent, Math::max) < dependent) {
+			propagatePriority();
+		}
+	}
+
+	private void propagatePriority() {
+		long priority = getPriority();
+
+		for(Task dependency : dependencies) {
+			dependency.raisePriority(priority);
+		}
+	}
+
+	/**
+	 * Registers a callback which is called once this task either succeeded or failed, including
+	 * failing because of a failed dependency. If this task has already completed, the callback is
+	 * called immediately on the calling thread.
+	 *
+	 * @param callback The callback receiving this task and the scheduler it ran on
+	 */
+	public void whenComplete(BiConsumer<Task, TaskScheduler> callback) {
+		while(true) {
+			Callback head = completionCallbacks.get();
+
+			if(head == COMPLETED) {
+				break;
+			}
+
+			if(completionCallbacks.compareAndSet(head, new Callback(callback, head))) {
+				return;
+			}
+		}
+
+		callback.accept(this, scheduler);
+	}
+
+	/**
+	 * Determines the state this task is in.
+	 *
+	 * @return The current state of this task
+	 */
+	public final TaskState getState() {
+		return state.get();
+	}
+
+	/**
+	 * Determines the type of this task, the run times of tasks of the same type are recorded
+	 * together in the {@link SchedulerMetrics}.
+	 *
+	 * @return The type of this task, by default the name of its class
+	 */
+	public String getType() {
+		String name = getClass().getName();
+
+		return name.substring(name.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * Determines whether this task has failed.
+	 *
+	 * @return <code>true</code> if this task failed, <code>false</code> otherwise
+	 */
+	public final boolean hasFailed() {
+		return failReason != null || state.get() == TaskState.FAILED;
+	}
+
 	/**
 	 * Determines why this task failed.
 	 *
@@ -116,17 +266,43 @@ public abstract class Task {
 		this.scheduler = scheduler;
 		try {
 			changeState(TaskState.RUNNING, true);
-			synchronized(lockObject) {
-				run();
+			run();
+
+			// run() may have failed the task on its own
+			if(!hasFailed()) {
+				changeState(TaskState.SUCCEEDED, true);
 			}
-			changeState(TaskState.SUCCEEDED, true);
 		} catch(Throwable t) {
 			// Catch everything
 			fail(t);
 		} finally {
-			synchronized(lockObject) {
-				completionCallbacks.forEach((callback) -> callback.accept(this, scheduler));
-			};
+			notifyCompletion(scheduler);
+		}
+	}
+
+	private void notifyCompletion(TaskScheduler scheduler) {
+		Callback head = completionCallbacks.getAndSet(COMPLETED);
+
+		if(head == COMPLETED) {
+			return;
+		}
+
+		// The stack holds the callbacks newest first, they are called in the order they were added
+		Callback reversed = null;
+
+		for(Callback callback = head; callback != null; callback = callback.next) {
+			reversed = new Callback(callback.callback, reversed);
+		}
+
+		for(Callback callback = reversed; callback != null; callback = callback.next) {
+			try {
+				callback.callback.accept(this, scheduler);
+			} catch(Throwable t) {
+				// The remaining callbacks have to run anyway, or dependents would wait forever
+				Logger logger = Logger.getInstance();
+				logger.error("Completion callback of task %s threw an exception", this);
+				logger.thrown(LogLevel.ERROR, t);
+			}
 		}
 	}
 
@@ -156,17 +332,23 @@ public abstract class Task {
 	 * 								 current state
 	 */
 	public final void changeState(TaskState newState, boolean requireImmediately) {
-		if(requireImmediately && !newState.followsImmediately(state)) {
-			throw new IllegalStateException(newState.name() + " does not immediately follow state " + state.name());
-		} else if(!newState.follows(state)) {
-			throw new IllegalStateException(newState.name() + " does not follow state " + state.name());
-		}
+		TaskState current;
 
-		synchronized(lockObject) {
-			Logger.getInstance().trace("Task state about to change for task %s from %s to %s",
-					this, state.name(), newState.name());
-			state = newState;
-		}
+		do {
+			current = state.get();
+
+			if(requireImmediately && !newState.followsImmediately(current)) {
+				throw new IllegalStateException(newState.name() +
+												" does not immediately follow state " +
+												current.name());
+			} else if(!newState.follows(current)) {
+				throw new IllegalStateException(
+						newState.name() + " does not follow state " + current.name());
+			}
+		} while(!state.compareAndSet(current, newState));
+
+		Logger.getInstance().trace("Task state changed for task %s from %s to %s",
+				this, current.name(), newState.name());
 	}
 
 	/**
@@ -187,22 +369,46 @@ public abstract class Task {
 	}
 
 	private void checkCompletion(Task dependency, TaskScheduler scheduler) {
-		if(this.state != TaskState.WAITING) {
+		if(scheduler != null) {
+			this.scheduler = scheduler;
+		}
+
+		if(!dependency.hasFailed()) {
+			// A failed dependency never counts down, so this can only reach 0 while waiting
+			if(pendingDependencies.decrementAndGet() == 0) {
+				this.scheduler.schedule(this);
+			}
+
 			return;
-		} else if(dependency.state != TaskState.SUCCEEDED) {
-			this.failReason = FailReason.DEPENDENCY_FAILED;
-			changeState(TaskState.FAILED, false);
+		}
+
+		// Only the first failed dependency fails this task
+		if(!state.compareAndSet(TaskState.WAITING, TaskState.FAILED)) {
 			return;
 		}
 
-		synchronized(lockObject) {
-			dependencies.remove(dependency);
+		this.failReason = FailReason.DEPENDENCY_FAILED;
 
-			if(dependencies.isEmpty()) {
-				scheduler.schedule(this);
-			}
+		if(this.scheduler != null) {
+			this.scheduler.getMetrics().taskDependencyFailed();
 		}
+
+		Logger.getInstance().trace("Task %s failed because its dependency %s failed",
+				this, dependency);
+
+		// This task will never run, so its dependents need to be told about the failure here
+		notifyCompletion(this.scheduler);
 	}
 
 	protected abstract void run();
+
+	private static class Callback {
+		private final BiConsumer<Task, TaskScheduler> callback;
+		private final Callback next;
+
+		private Callback(BiConsumer<Task, TaskScheduler> callback, Callback next) {
+			this.callback = callback;
+			this.next = next;
+		}
+	}
 }
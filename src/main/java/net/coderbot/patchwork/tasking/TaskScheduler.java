@@ -3,19 +3,49 @@ package net.coderbot.patchwork.tasking;
 import net.coderbot.patchwork.logging.LogLevel;
 import net.coderbot.patchwork.logging.Logger;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Coordinates task's and makes sure their dependencies have run
+ *
+ * Every task thread has its own queue of tasks. Tasks scheduled from a task thread go to its own
+ * queue, so that follow up work runs on the thread that produced its input while it is still in
+ * the cache. Tasks scheduled from anywhere else go to a shared injection queue. A thread takes the
+ * more important of the first tasks of its own queue and the injection queue, steals the most
+ * important task of the other threads once both are empty, and only parks once there is nothing
+ * left anywhere.
+ *
+ * The queues are ordered by the priority of the tasks at the time they were scheduled, ties are
+ * run in the order they were scheduled in.
+ *
+ * @see Task#getPriority()
  */
 public class TaskScheduler {
+	private static final int RUNNING = 0;
+	private static final int PARKED = 1;
+
+	private static final Comparator<Task> ORDER =
+			Comparator.comparingLong((Task task) -> -task.scheduledPriority)
+					.thenComparingLong(task -> task.sequence);
+
 	private final ThreadGroup taskThreadGroup;
 	private final TaskThread[] taskThreads;
 	private final Logger logger;
-	private final Queue<Task> waitingTasks;
+	private final List<NavigableSet<Task>> localTasks;
+	private final NavigableSet<Task> injectedTasks;
+	private final AtomicLong sequence;
+	private final AtomicIntegerArray threadStates;
 	private final AtomicBoolean shutdown;
+	private final SchedulerMetrics metrics;
 
 	/**
 	 * Creates a new task scheduler with a specific amount of threads
@@ -26,8 +56,19 @@ public class TaskScheduler {
 		taskThreadGroup = new SchedulerThreadGroup();
 		taskThreads = new TaskThread[threadCount];
 		logger = Logger.getInstance();
-		waitingTasks = new LinkedList<>();
+		injectedTasks = new ConcurrentSkipListSet<>(ORDER);
+		sequence = new AtomicLong();
+		threadStates = new AtomicIntegerArray(threadCount);
 		shutdown = new AtomicBoolean(false);
+		metrics = new SchedulerMetrics(threadCount);
+
+		// The queues belong to the slots and not to the threads, so that a replaced thread takes
+		// over the tasks of the thread it replaces
+		localTasks = new ArrayList<>(threadCount);
+
+		for(int i = 0; i < threadCount; i++) {
+			localTasks.add(new ConcurrentSkipListSet<>(ORDER));
+		}
 	}
 
 	/**
@@ -35,16 +76,72 @@ public class TaskScheduler {
 	 * Tasks passed in here are assumed to have their dependencies fulfilled, since
 	 * once a task completes it will signal its dependencies which will then schedule themselves.
 	 *
+	 * Tasks that reserve resources are held back by their pool until the resources are available.
+	 *
 	 * @param toRun The task which should be scheduled
 	 */
 	void schedule(Task toRun) {
-		synchronized(waitingTasks) {
-			waitingTasks.add(toRun);
-			toRun.changeState(TaskState.SCHEDULED, true);
-			waitingTasks.notify();
+		if(toRun.reservedPool != null && !toRun.reservedPool.tryReserve(toRun, this)) {
+			return;
+		}
+
+		enqueue(toRun);
+	}
+
+	/**
+	 * Queues a task to be run, regardless of the resources it reserves.
+	 *
+	 * @param toRun The task which should be run
+	 */
+	void enqueue(Task toRun) {
+		toRun.changeState(TaskState.SCHEDULED, true);
+		toRun.scheduledPriority = toRun.getPriority();
+		toRun.sequence = sequence.getAndIncrement();
+		metrics.taskQueued(toRun);
+
+		Thread current = Thread.currentThread();
+
+		if(current instanceof TaskThread && ((TaskThread) current).getScheduler() == this) {
+			localTasks.get(((TaskThread) current).index).add(toRun);
+		} else {
+			injectedTasks.add(toRun);
+		}
+
+		wakeOne();
+	}
+
+	/**
+	 * Unparks one parked thread, if there is any. The task has to be queued before calling this: a
+	 * thread that is about to park looks at all queues once more after announcing that it parks,
+	 * so either it sees the task or this sees it parking.
+	 */
+	private void wakeOne() {
+		for(int i = 0; i < taskThreads.length; i++) {
+			if(threadStates.get(i) == PARKED && threadStates.compareAndSet(i, PARKED, RUNNING)) {
+				LockSupport.unpark(taskThreads[i]);
+				return;
+			}
 		}
 	}
 
+	/**
+	 * Determines how many tasks this scheduler can run at the same time.
+	 *
+	 * @return The amount of task threads
+	 */
+	public int getThreadCount() {
+		return taskThreads.length;
+	}
+
+	/**
+	 * Retrieves the metrics of this scheduler, they are updated live.
+	 *
+	 * @return The metrics of this scheduler
+	 */
+	public SchedulerMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Starts the scheduler
 	 */
@@ -71,6 +168,68 @@ public class TaskScheduler {
 		}
 	}
 
+	/**
+	 * Finds the next task for a thread: the more important of its own first task and the first
+	 * injected task, or else the most important task of another thread.
+	 *
+	 * @param index The index of the thread looking for work
+	 * @return The task, or <code>null</code> if there is no work anywhere
+	 */
+	private Task findTask(int index) {
+		NavigableSet<Task> local = localTasks.get(index);
+		Task first = peek(local);
+		Task injected = peek(injectedTasks);
+
+		Task task = null;
+
+		if(injected != null && (first == null || ORDER.compare(injected, first) < 0)) {
+			task = injectedTasks.pollFirst();
+		}
+
+		if(task == null) {
+			task = local.pollFirst();
+		}
+
+		if(task == null) {
+			task = injectedTasks.pollFirst();
+		}
+
+		while(task == null) {
+			NavigableSet<Task> victim = null;
+			Task best = null;
+
+			for(int i = 1; i < localTasks.size(); i++) {
+				NavigableSet<Task> other = localTasks.get((index + i) % localTasks.size());
+				Task candidate = peek(other);
+
+				if(candidate != null && (best == null || ORDER.compare(candidate, best) < 0)) {
+					victim = other;
+					best = candidate;
+				}
+			}
+
+			if(victim == null) {
+				return null;
+			}
+
+			// May come back empty if the owner or another thief was faster, then look again
+			task = victim.pollFirst();
+
+			if(task != null) {
+				metrics.taskStolen();
+			}
+		}
+
+		return task;
+	}
+
+	private static Task peek(NavigableSet<Task> tasks) {
+		// first() throws if another thread empties the set in between
+		Iterator<Task> iterator = tasks.iterator();
+
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
 	private class SchedulerThreadGroup extends ThreadGroup {
 		private SchedulerThreadGroup() {
 			super("TaskSchedulerGroup");
@@ -100,6 +259,7 @@ public class TaskScheduler {
 			}
 
 			logger.trace("Replacing task thread %d", taskThread.index);
+			threadStates.set(taskThread.index, RUNNING);
 			taskThreads[taskThread.index] = new TaskThread(taskThread.index);
 			taskThreads[taskThread.index].start();
 		}
@@ -113,24 +273,42 @@ public class TaskScheduler {
 			this.index = index;
 		}
 
+		private TaskScheduler getScheduler() {
+			return TaskScheduler.this;
+		}
+
 		@Override
 		public void run() {
 			while(!shutdown.get()) {
-				Task task;
-				synchronized(waitingTasks) {
-					if(waitingTasks.size() < 1) {
-						try {
-							logger.trace("Task thread %d waiting for available task", index);
-							waitingTasks.wait();
-						} catch(InterruptedException ignored) {
-						}
+				Task task = findTask(index);
+
+				if(task == null) {
+					threadStates.set(index, PARKED);
+
+					// Look again, a task may have been queued before the state was visible
+					task = findTask(index);
+
+					if(task == null) {
+						logger.trace("Task thread %d waiting for available task", index);
+						metrics.threadParked();
+						LockSupport.park(this);
+
+						// Unparked by a new task, by shutdown, or spuriously
+						threadStates.set(index, RUNNING);
 						continue;
-					} else {
-						logger.trace("Task thread %d accepting next task", index);
-						task = waitingTasks.remove();
+					}
+
+					if(!threadStates.compareAndSet(index, PARKED, RUNNING)) {
+						// Someone woke this thread for a task it may not have taken, pass it on
+						wakeOne();
 					}
 				}
+
+				logger.trace("Task thread %d accepting next task", index);
+
+				long startedAt = metrics.taskStarted(task);
 				task.fullRun(TaskScheduler.this);
+				metrics.taskFinished(task, startedAt);
 			}
 		}
 	}
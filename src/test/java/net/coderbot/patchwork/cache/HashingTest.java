@@ -0,0 +1,108 @@
+package net.coderbot.patchwork.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class HashingTest {
+	private Path directory;
+	private Path input;
+	private Path stamp;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("patchwork-hashing");
+		input = directory.resolve("input.jar");
+		stamp = directory.resolve("stamp").resolve("fingerprint");
+
+		Files.write(input, bytes("first"));
+		Files.setLastModifiedTime(input, FileTime.fromMillis(1_000_000));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try(Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void stampedFingerprintMatchesFullHash() throws IOException {
+		byte[] expected = Hashing.fingerprint("1.0", input);
+
+		assertArrayEquals(expected, Hashing.fingerprint(stamp, "1.0", input));
+		assertArrayEquals(expected, Hashing.fingerprint(stamp, "1.0", input));
+	}
+
+	@Test
+	public void reusesFingerprintWhileMetadataIsUnchanged() throws IOException {
+		byte[] first = Hashing.fingerprint(stamp, "1.0", input);
+
+		// Same size and modification time, so the content is not read again
+		Files.write(input, bytes("other"));
+		Files.setLastModifiedTime(input, FileTime.fromMillis(1_000_000));
+
+		assertArrayEquals(first, Hashing.fingerprint(stamp, "1.0", input));
+	}
+
+	@Test
+	public void hashesAgainOnceMetadataChanges() throws IOException {
+		byte[] first = Hashing.fingerprint(stamp, "1.0", input);
+
+		Files.write(input, bytes("second"));
+
+		byte[] changedSize = Hashing.fingerprint(stamp, "1.0", input);
+		assertArrayEquals(Hashing.fingerprint("1.0", input), changedSize);
+		assertFalse(Arrays.equals(first, changedSize));
+
+		Files.write(input, bytes("third!"));
+		Files.setLastModifiedTime(input, FileTime.fromMillis(2_000_000));
+
+		assertArrayEquals(Hashing.fingerprint("1.0", input),
+				Hashing.fingerprint(stamp, "1.0", input));
+	}
+
+	@Test
+	public void hashesAgainForOtherVersions() throws IOException {
+		Hashing.fingerprint(stamp, "1.0", input);
+
+		assertArrayEquals(Hashing.fingerprint("1.1", input),
+				Hashing.fingerprint(stamp, "1.1", input));
+	}
+
+	@Test
+	public void ignoresCorruptStamps() throws IOException {
+		Hashing.fingerprint(stamp, "1.0", input);
+
+		// Matching metadata, but the fingerprint is not hex
+		String stamped = new String(Files.readAllBytes(stamp), StandardCharsets.UTF_8);
+		Files.write(stamp, bytes(stamped.replaceAll("[0-9a-f]+\\s*$", "xyz\n")));
+
+		assertArrayEquals(Hashing.fingerprint("1.0", input),
+				Hashing.fingerprint(stamp, "1.0", input));
+	}
+
+	@Test
+	public void rejectsInvalidHex() {
+		assertArrayEquals(new byte[] { 0x01, (byte) 0xab }, Hashing.fromHex("01ab"));
+		assertNull(Hashing.fromHex("abc"));
+		assertNull(Hashing.fromHex("zz"));
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+}
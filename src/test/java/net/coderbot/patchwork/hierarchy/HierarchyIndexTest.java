@@ -0,0 +1,171 @@
+package net.coderbot.patchwork.hierarchy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HierarchyIndexTest {
+	private static final byte[] HASH = { 1, 2, 3, 4 };
+
+	private Path directory;
+	private Path jar;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("patchwork-hierarchy");
+		jar = directory.resolve("minecraft.jar");
+
+		try(ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+			write(zip, "a", "java/lang/Object", new String[] { "c" }, "b I", "d (La;)V");
+			write(zip, "e", "a", null);
+			write(zip, "c", "java/lang/Object", null, "f ()V", "g I");
+
+			zip.putNextEntry(new ZipEntry("assets/readme.txt"));
+			zip.closeEntry();
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try(Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void indexesRemappedHierarchy() throws IOException {
+		HierarchyIndex index =
+				HierarchyIndex.load(jar, HierarchyIndexTest::remapper, file(), HASH);
+
+		assertEquals(3, index.size());
+		assertEquals(new HashSet<>(Arrays.asList("net/minecraft/Block",
+							 "net/minecraft/StoneBlock",
+							 "net/minecraft/IItemProvider")),
+				new HashSet<>(index.getClasses()));
+
+		assertTrue(index.contains("net/minecraft/StoneBlock"));
+		assertFalse(index.contains("e"));
+		assertEquals("net/minecraft/Block", index.getSuperclass("net/minecraft/StoneBlock"));
+		assertEquals("java/lang/Object", index.getSuperclass("net/minecraft/Block"));
+		assertNull(index.getSuperclass("net/minecraft/Missing"));
+		assertArrayEquals(new String[] { "net/minecraft/IItemProvider" },
+				index.getInterfaces("net/minecraft/Block"));
+		assertEquals(0, index.getInterfaces("net/minecraft/StoneBlock").length);
+		assertEquals(new LinkedHashSet<>(Arrays.asList("net/minecraft/Block",
+							 "java/lang/Object",
+							 "net/minecraft/IItemProvider")),
+				index.getSupertypes("net/minecraft/StoneBlock"));
+	}
+
+	@Test
+	public void resolvesMemberOwners() throws IOException {
+		HierarchyIndex index =
+				HierarchyIndex.load(jar, HierarchyIndexTest::remapper, file(), HASH);
+
+		assertTrue(index.declaresField("net/minecraft/Block", "field_1_b", "I"));
+		assertFalse(index.declaresField("net/minecraft/StoneBlock", "field_1_b", "I"));
+		assertTrue(index.declaresMethod(
+				"net/minecraft/Block", "func_2_d", "(Lnet/minecraft/Block;)V"));
+
+		assertEquals("net/minecraft/Block",
+				index.getFieldOwner("net/minecraft/StoneBlock", "field_1_b", "I"));
+		assertEquals("net/minecraft/IItemProvider",
+				index.getFieldOwner("net/minecraft/StoneBlock", "g", "I"));
+		assertEquals("net/minecraft/Block",
+				index.getMethodOwner(
+						"net/minecraft/StoneBlock", "func_2_d", "(Lnet/minecraft/Block;)V"));
+		assertEquals("net/minecraft/IItemProvider",
+				index.getMethodOwner("net/minecraft/StoneBlock", "f", "()V"));
+		assertNull(index.getMethodOwner("net/minecraft/StoneBlock", "missing", "()V"));
+	}
+
+	@Test
+	public void reusesIndexWithSameHash() throws IOException {
+		HierarchyIndex.load(jar, HierarchyIndexTest::remapper, file(), HASH);
+		Files.delete(jar);
+
+		// Neither the jar nor the remapper are needed once the index exists
+		HierarchyIndex index = HierarchyIndex.load(jar, () -> {
+			fail("The remapper should not be created for an up to date index");
+
+			return null;
+		}, file(), HASH);
+
+		assertEquals(3, index.size());
+		assertEquals("net/minecraft/Block", index.getSuperclass("net/minecraft/StoneBlock"));
+	}
+
+	@Test
+	public void rejectsOtherHashes() throws IOException {
+		HierarchyIndex.load(jar, HierarchyIndexTest::remapper, file(), HASH);
+
+		assertNotNull(HierarchyIndex.open(file(), HASH));
+		assertNull(HierarchyIndex.open(file(), new byte[] { 1, 2, 3, 5 }));
+		assertNull(HierarchyIndex.open(directory.resolve("missing.index"), HASH));
+	}
+
+	private Path file() {
+		return directory.resolve("index").resolve("minecraft.index");
+	}
+
+	private static Remapper remapper() {
+		Map<String, String> mapping = new HashMap<>();
+		mapping.put("a", "net/minecraft/Block");
+		mapping.put("e", "net/minecraft/StoneBlock");
+		mapping.put("c", "net/minecraft/IItemProvider");
+		mapping.put("a.b", "field_1_b");
+		mapping.put("a.d(La;)V", "func_2_d");
+
+		return new SimpleRemapper(mapping);
+	}
+
+	private static void write(ZipOutputStream zip,
+			String name,
+			String superName,
+			String[] interfaces,
+			String... members) throws IOException {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, interfaces);
+
+		for(String member : members) {
+			String[] parts = member.split(" ");
+
+			if(parts[1].startsWith("(")) {
+				writer.visitMethod(Opcodes.ACC_PUBLIC, parts[0], parts[1], null, null).visitEnd();
+			} else {
+				writer.visitField(Opcodes.ACC_PUBLIC, parts[0], parts[1], null, null).visitEnd();
+			}
+		}
+
+		writer.visitEnd();
+
+		zip.putNextEntry(new ZipEntry(name + ".class"));
+		zip.write(writer.toByteArray());
+		zip.closeEntry();
+	}
+}
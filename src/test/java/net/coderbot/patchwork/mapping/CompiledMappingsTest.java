@@ -0,0 +1,219 @@
+package net.coderbot.patchwork.mapping;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import net.fabricmc.mappings.Mappings;
+import net.fabricmc.mappings.MappingsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.commons.Remapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CompiledMappingsTest {
+	private static final String TSRG = "a net/minecraft/Foo\n" +
+									   "\tb field_1_b\n" +
+									   "\tc (La;I)La; func_2_c\n" +
+									   "d net/minecraft/Bar\n" +
+									   "\te func_3_e\n";
+
+	private static final String INTERMEDIARY = "v1\tofficial\tintermediary\n" +
+											   "CLASS\ta\tnet/minecraft/class_1\n" +
+											   "CLASS\td\tnet/minecraft/class_2\n" +
+											   "CLASS\tq\tnet/minecraft/class_9\n" +
+											   "FIELD\ta\tI\tb\tfield_100\n" +
+											   "FIELD\td\tJ\te\tfield_101\n" +
+											   "METHOD\ta\t(La;I)La;\tc\tmethod_5\n";
+
+	private static final byte[] HASH = { 1, 2, 3, 4 };
+
+	private Path directory;
+	private BridgedMappings bridged;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("patchwork-mappings");
+
+		Mappings intermediary = MappingsProvider.readTinyMappings(stream(INTERMEDIARY));
+		List<TsrgClass<RawMapping>> classes = Tsrg.readMappings(stream(TSRG));
+
+		bridged = new BridgedMappings(new TsrgMappings(classes, intermediary, "official"),
+				intermediary);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try(Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void roundTripsEveryEntry() throws IOException {
+		Path file = directory.resolve("mappings.bin");
+		CompiledMappings compiled = CompiledMappings.compile(bridged, file, HASH);
+
+		List<String> expected = new ArrayList<>();
+		bridged.load(recorder(expected));
+
+		List<String> written = new ArrayList<>();
+		compiled.load(recorder(written));
+
+		List<String> reopened = new ArrayList<>();
+		CompiledMappings.open(file, HASH).load(recorder(reopened));
+
+		// Compiled mappings are grouped by kind, the order within a kind is kept
+		Collections.sort(expected);
+		Collections.sort(written);
+		Collections.sort(reopened);
+
+		assertEquals(expected, written);
+		assertEquals(expected, reopened);
+		assertEquals(6, expected.size());
+	}
+
+	@Test
+	public void resolvesNames() throws IOException {
+		CompiledMappings compiled =
+				CompiledMappings.compile(bridged, directory.resolve("mappings.bin"), HASH);
+
+		Map<String, String> classes = compiled.getClasses();
+		assertEquals("net/minecraft/class_1", classes.get("net/minecraft/Foo"));
+		assertEquals("net/minecraft/class_9", classes.get("q"));
+
+		Remapper remapper = compiled.asRemapper();
+		assertEquals("net/minecraft/class_2", remapper.map("net/minecraft/Bar"));
+		assertEquals("field_100", remapper.mapFieldName("net/minecraft/Foo", "field_1_b", "I"));
+		assertEquals("method_5",
+				remapper.mapMethodName("net/minecraft/Foo",
+						"func_2_c",
+						"(Lnet/minecraft/Foo;I)Lnet/minecraft/Foo;"));
+	}
+
+	@Test
+	public void looksUpSingleNames() throws IOException {
+		Path file = directory.resolve("mappings.bin");
+		CompiledMappings.compile(bridged, file, HASH);
+
+		CompiledMappings compiled = CompiledMappings.open(file, HASH);
+
+		assertEquals("net/minecraft/class_1", compiled.getMappedClass("net/minecraft/Foo"));
+		assertEquals("net/minecraft/class_9", compiled.getMappedClass("q"));
+		assertNull(compiled.getMappedClass("net/minecraft/Missing"));
+
+		assertEquals("net/minecraft/Bar", compiled.getUnmappedClass("net/minecraft/class_2"));
+		assertNull(compiled.getUnmappedClass("net/minecraft/Bar"));
+
+		assertEquals("field_100", compiled.getMappedField("net/minecraft/Foo", "field_1_b", "I"));
+		assertEquals("field_101", compiled.getMappedField("net/minecraft/Bar", "func_3_e", "J"));
+		assertNull(compiled.getMappedField("net/minecraft/Foo", "field_1_b", "J"));
+		assertNull(compiled.getMappedField("net/minecraft/Bar", "field_1_b", "I"));
+
+		assertEquals("method_5",
+				compiled.getMappedMethod("net/minecraft/Foo",
+						"func_2_c",
+						"(Lnet/minecraft/Foo;I)Lnet/minecraft/Foo;"));
+		assertNull(compiled.getMappedMethod("net/minecraft/Foo", "func_2_c", "()V"));
+		assertNull(compiled.getMappedMethod("net/minecraft/Foo", "field_1_b", "I"));
+	}
+
+	@Test
+	public void looksUpEveryEntry() throws IOException {
+		CompiledMappings compiled =
+				CompiledMappings.compile(bridged, directory.resolve("mappings.bin"), HASH);
+
+		List<String> missing = new ArrayList<>();
+
+		compiled.load(new MappingSink() {
+			@Override
+			public void acceptClass(String name, String mapped) {
+				if(!mapped.equals(compiled.getMappedClass(name)) ||
+						!name.equals(compiled.getUnmappedClass(mapped))) {
+					missing.add(name);
+				}
+			}
+
+			@Override
+			public void acceptField(String owner, String name, String description, String mapped) {
+				if(!mapped.equals(compiled.getMappedField(owner, name, description))) {
+					missing.add(owner + "." + name);
+				}
+			}
+
+			@Override
+			public void acceptMethod(String owner,
+					String name,
+					String description,
+					String mapped) {
+				if(!mapped.equals(compiled.getMappedMethod(owner, name, description))) {
+					missing.add(owner + "." + name + description);
+				}
+			}
+		});
+
+		assertEquals(Collections.emptyList(), missing);
+	}
+
+	@Test
+	public void rejectsOtherHashes() throws IOException {
+		Path file = directory.resolve("mappings.bin");
+		CompiledMappings.compile(bridged, file, HASH);
+
+		assertNotNull(CompiledMappings.open(file, HASH));
+		assertNull(CompiledMappings.open(file, new byte[] { 1, 2, 3, 5 }));
+		assertNull(CompiledMappings.open(file, new byte[] { 1, 2, 3 }));
+		assertNull(CompiledMappings.open(directory.resolve("missing.bin"), HASH));
+	}
+
+	@Test
+	public void rejectsTruncatedFiles() throws IOException {
+		Path file = directory.resolve("mappings.bin");
+		CompiledMappings.compile(bridged, file, HASH);
+
+		byte[] content = Files.readAllBytes(file);
+		byte[] truncated = new byte[content.length - 1];
+		System.arraycopy(content, 0, truncated, 0, truncated.length);
+		Files.write(file, truncated);
+
+		assertNull(CompiledMappings.open(file, HASH));
+	}
+
+	private static MappingSink recorder(List<String> entries) {
+		return new MappingSink() {
+			@Override
+			public void acceptClass(String name, String mapped) {
+				entries.add("CLASS " + name + " " + mapped);
+			}
+
+			@Override
+			public void acceptField(String owner, String name, String description, String mapped) {
+				entries.add("FIELD " + owner + " " + name + " " + description + " " + mapped);
+			}
+
+			@Override
+			public void acceptMethod(String owner,
+					String name,
+					String description,
+					String mapped) {
+				entries.add("METHOD " + owner + " " + name + " " + description + " " + mapped);
+			}
+		};
+	}
+
+	private static ByteArrayInputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,311 @@
+package net.coderbot.patchwork.mapping;
+
+import net.coderbot.patchwork.hierarchy.ClassHierarchy;
+import net.coderbot.patchwork.hierarchy.HierarchyIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.fabricmc.mappings.Mappings;
+import net.fabricmc.mappings.MappingsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.Remapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ModRemapperTest {
+	private static final String TSRG = "a net/minecraft/Foo\n" +
+									   "\tb field_1_b\n" +
+									   "\tc (La;I)La; func_2_c\n" +
+									   "d net/minecraft/Bar\n" +
+									   "e net/minecraft/IProvider\n" +
+									   "\tf ()La; func_3_f\n";
+
+	private static final String INTERMEDIARY = "v1\tofficial\tintermediary\n" +
+											   "CLASS\ta\tnet/minecraft/class_1\n" +
+											   "CLASS\td\tnet/minecraft/class_2\n" +
+											   "CLASS\te\tnet/minecraft/class_3\n" +
+											   "FIELD\ta\tI\tb\tfield_100\n" +
+											   "METHOD\ta\t(La;I)La;\tc\tmethod_5\n" +
+											   "METHOD\te\t()La;\tf\tmethod_6\n";
+
+	private static final String FOO = "net/minecraft/Foo";
+	private static final String BAR = "net/minecraft/Bar";
+	private static final String PROVIDER = "net/minecraft/IProvider";
+	private static final String COPY = "(L" + FOO + ";I)L" + FOO + ";";
+	private static final String GET = "()L" + FOO + ";";
+
+	private static final byte[] HASH = { 1, 2, 3, 4 };
+
+	private Path directory;
+	private CompiledMappings mappings;
+	private HierarchyIndex minecraft;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("patchwork-remapper");
+
+		Mappings intermediary = MappingsProvider.readTinyMappings(stream(INTERMEDIARY));
+		List<TsrgClass<RawMapping>> classes = Tsrg.readMappings(stream(TSRG));
+
+		mappings = CompiledMappings.compile(
+				new BridgedMappings(new TsrgMappings(classes, intermediary, "official"),
+						intermediary),
+				directory.resolve("mappings.bin"),
+				HASH);
+
+		Path jar = directory.resolve("minecraft.jar");
+
+		try(ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+			int abstractMethod = Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT;
+
+			ClassWriter foo = begin(Opcodes.ACC_ABSTRACT, FOO, "java/lang/Object");
+			foo.visitField(Opcodes.ACC_PUBLIC, "field_1_b", "I", null, null).visitEnd();
+			foo.visitMethod(abstractMethod, "func_2_c", COPY, null, null).visitEnd();
+			write(zip, FOO, foo);
+
+			write(zip, BAR, begin(Opcodes.ACC_ABSTRACT, BAR, FOO));
+
+			ClassWriter provider = begin(
+					Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, PROVIDER, "java/lang/Object");
+			provider.visitMethod(abstractMethod, "func_3_f", GET, null, null).visitEnd();
+			write(zip, PROVIDER, provider);
+		}
+
+		// Indexed with srg names, just like the classpath the mods are remapped against
+		minecraft = HierarchyIndex.load(
+				jar, () -> new Remapper() {}, directory.resolve("minecraft.index"), HASH);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try(Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Test
+	public void remapsInheritedMembers() {
+		ClassWriter block = begin(0, "mod/Block", BAR);
+		block.visitField(Opcodes.ACC_PUBLIC, "count", "I", null, null).visitEnd();
+
+		// Overrides func_2_c, which Foo declares
+		MethodVisitor copy = block.visitMethod(Opcodes.ACC_PUBLIC, "func_2_c", COPY, null, null);
+		copy.visitCode();
+		copy.visitVarInsn(Opcodes.ALOAD, 0);
+		copy.visitInsn(Opcodes.ARETURN);
+		copy.visitMaxs(0, 0);
+		copy.visitEnd();
+
+		MethodVisitor run = block.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+		run.visitCode();
+		run.visitVarInsn(Opcodes.ALOAD, 0);
+		run.visitFieldInsn(Opcodes.GETFIELD, "mod/Block", "field_1_b", "I");
+		run.visitInsn(Opcodes.POP);
+		run.visitVarInsn(Opcodes.ALOAD, 0);
+		run.visitFieldInsn(Opcodes.GETFIELD, "mod/Block", "count", "I");
+		run.visitInsn(Opcodes.POP);
+		run.visitVarInsn(Opcodes.ALOAD, 0);
+		run.visitInsn(Opcodes.ACONST_NULL);
+		run.visitInsn(Opcodes.ICONST_0);
+		run.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BAR, "func_2_c", COPY, false);
+		run.visitInsn(Opcodes.POP);
+		run.visitInsn(Opcodes.RETURN);
+		run.visitMaxs(0, 0);
+		run.visitEnd();
+
+		ClassHierarchy mod = new ClassHierarchy();
+		mod.add("mod/Block", BAR, new String[0]);
+
+		List<String> remapped = record(new ModRemapper(mappings, minecraft, mod), block);
+
+		assertTrue(remapped.contains("class mod/Block net/minecraft/class_2"));
+		assertTrue(remapped.contains("field count I"));
+		assertTrue(remapped.contains(
+				"method method_5 (Lnet/minecraft/class_1;I)Lnet/minecraft/class_1;"));
+		assertTrue(remapped.contains("insn mod/Block.field_100 I"));
+		assertTrue(remapped.contains("insn mod/Block.count I"));
+		assertTrue(remapped.contains("insn net/minecraft/class_2.method_5 " +
+									 "(Lnet/minecraft/class_1;I)Lnet/minecraft/class_1;"));
+		assertFalse(remapped.toString().contains("func_2_c"));
+	}
+
+	@Test
+	public void remapsInterfaceMethods() {
+		// mod/Impl -> mod/Provider -> IProvider, which declares func_3_f
+		ClassWriter modProvider = begin(Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+				"mod/Provider",
+				"java/lang/Object",
+				PROVIDER);
+
+		ClassWriter impl = begin(0, "mod/Impl", "java/lang/Object", "mod/Provider");
+
+		MethodVisitor get = impl.visitMethod(Opcodes.ACC_PUBLIC, "func_3_f", GET, null, null);
+		get.visitCode();
+		get.visitInsn(Opcodes.ACONST_NULL);
+		get.visitInsn(Opcodes.ARETURN);
+		get.visitMaxs(0, 0);
+		get.visitEnd();
+
+		// A lambda implementing IProvider, its name is the name of the interface method
+		MethodVisitor lambda = impl.visitMethod(Opcodes.ACC_PUBLIC, "lambda", "()V", null, null);
+		lambda.visitCode();
+		lambda.visitInvokeDynamicInsn("func_3_f",
+				"()L" + PROVIDER + ";",
+				new Handle(Opcodes.H_INVOKESTATIC,
+						"java/lang/invoke/LambdaMetafactory",
+						"metafactory",
+						"(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;" +
+								"Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;" +
+								"Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)" +
+								"Ljava/lang/invoke/CallSite;",
+						false),
+				Type.getMethodType(GET),
+				new Handle(Opcodes.H_INVOKESTATIC, "mod/Impl", "create", GET, false),
+				Type.getMethodType(GET));
+		lambda.visitInsn(Opcodes.POP);
+		lambda.visitInsn(Opcodes.RETURN);
+		lambda.visitMaxs(0, 0);
+		lambda.visitEnd();
+
+		ClassHierarchy mod = new ClassHierarchy();
+		mod.add("mod/Provider", "java/lang/Object", new String[] { PROVIDER });
+		mod.add("mod/Impl", "java/lang/Object", new String[] { "mod/Provider" });
+
+		ModRemapper remapper = new ModRemapper(mappings, minecraft, mod);
+
+		assertTrue(record(remapper, modProvider).contains(
+				"class mod/Provider java/lang/Object net/minecraft/class_3"));
+
+		List<String> remapped = record(remapper, impl);
+
+		assertTrue(remapped.contains("method method_6 ()Lnet/minecraft/class_1;"));
+		assertTrue(remapped.contains("indy method_6 ()Lnet/minecraft/class_3;"));
+		assertFalse(remapped.toString().contains("func_3_f"));
+	}
+
+	@Test
+	public void keepsUnmappedNames() {
+		ClassHierarchy mod = new ClassHierarchy();
+		mod.add("mod/Block", BAR, new String[0]);
+
+		ModRemapper remapper = new ModRemapper(mappings, minecraft, mod);
+
+		assertEquals("net/minecraft/class_1", remapper.map(FOO));
+		assertEquals("mod/Block", remapper.map("mod/Block"));
+		assertEquals("java/lang/Object", remapper.map("java/lang/Object"));
+		assertEquals("toString",
+				remapper.mapMethodName("mod/Block", "toString", "()Ljava/lang/String;"));
+		assertEquals("count", remapper.mapFieldName("mod/Block", "count", "I"));
+		assertEquals("field_100", remapper.mapFieldName(BAR, "field_1_b", "I"));
+	}
+
+	private static ClassWriter begin(int access,
+			String name,
+			String superName,
+			String... interfaces) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | access, name, null, superName, interfaces);
+
+		return writer;
+	}
+
+	private static void write(ZipOutputStream zip, String name, ClassWriter writer)
+			throws IOException {
+		writer.visitEnd();
+
+		zip.putNextEntry(new ZipEntry(name + ".class"));
+		zip.write(writer.toByteArray());
+		zip.closeEntry();
+	}
+
+	/**
+	 * Remaps a class and lists the names it declares and references
+	 */
+	private static List<String> record(ModRemapper remapper, ClassWriter writer) {
+		writer.visitEnd();
+
+		List<String> names = new ArrayList<>();
+		byte[] remapped = remapper.remap(new ClassReader(writer.toByteArray()));
+
+		new ClassReader(remapped).accept(new ClassVisitor(Opcodes.ASM7) {
+			@Override
+			public void visit(int version,
+					int access,
+					String name,
+					String signature,
+					String superName,
+					String[] interfaces) {
+				names.add(("class " + name + " " + superName + " " + String.join(" ", interfaces))
+								  .trim());
+			}
+
+			@Override
+			public FieldVisitor visitField(int access,
+					String name,
+					String descriptor,
+					String signature,
+					Object value) {
+				names.add("field " + name + " " + descriptor);
+
+				return null;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(int access,
+					String name,
+					String descriptor,
+					String signature,
+					String[] exceptions) {
+				names.add("method " + name + " " + descriptor);
+
+				return new MethodVisitor(Opcodes.ASM7) {
+					@Override
+					public void visitFieldInsn(int opcode,
+							String owner,
+							String name,
+							String descriptor) {
+						names.add("insn " + owner + "." + name + " " + descriptor);
+					}
+
+					@Override
+					public void visitMethodInsn(int opcode,
+							String owner,
+							String name,
+							String descriptor,
+							boolean isInterface) {
+						names.add("insn " + owner + "." + name + " " + descriptor);
+					}
+
+					@Override
+					public void visitInvokeDynamicInsn(String name,
+							String descriptor,
+							Handle bootstrap,
+							Object... arguments) {
+						names.add("indy " + name + " " + descriptor);
+					}
+				};
+			}
+		}, 0);
+
+		return names;
+	}
+
+	private static ByteArrayInputStream stream(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
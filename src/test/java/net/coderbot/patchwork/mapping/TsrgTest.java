@@ -0,0 +1,153 @@
+package net.coderbot.patchwork.mapping;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TsrgTest {
+	private static final String MAPPINGS = "a net/minecraft/Foo\n" +
+										   "\tb field_1_b\n" +
+										   "\tc (La;I)La; func_2_c\n" +
+										   "d net/minecraft/Bar\n" +
+										   "\te func_3_e\n";
+
+	private static final List<String> ENTRIES = Arrays.asList("class a net/minecraft/Foo",
+			"field b field_1_b",
+			"method c (La;I)La; func_2_c",
+			"class d net/minecraft/Bar",
+			"field e func_3_e");
+
+	@Test
+	public void readsEntries() throws IOException {
+		assertEquals(ENTRIES, read(stream(MAPPINGS)));
+	}
+
+	@Test
+	public void readsCrlfLineBreaks() throws IOException {
+		assertEquals(ENTRIES, read(stream(MAPPINGS.replace("\n", "\r\n"))));
+	}
+
+	@Test
+	public void readsLastLineWithoutLineBreak() throws IOException {
+		String mappings = MAPPINGS.substring(0, MAPPINGS.length() - 1);
+
+		assertEquals(ENTRIES, read(stream(mappings)));
+		assertEquals(ENTRIES, read(stream(mappings.replace("\n", "\r\n"))));
+	}
+
+	@Test
+	public void skipsEmptyLines() throws IOException {
+		assertEquals(ENTRIES, read(stream("\n" + MAPPINGS.replace("\n", "\n\r\n"))));
+	}
+
+	@Test
+	public void readsLinesSplitBetweenReads() throws IOException {
+		String crlf = MAPPINGS.replace("\n", "\r\n");
+
+		// Every line break, including between \r and \n, ends up at the end of some read
+		for(int chunk = 1; chunk <= 7; chunk++) {
+			assertEquals(ENTRIES, read(new ChunkedStream(bytes(MAPPINGS), chunk)));
+			assertEquals(ENTRIES, read(new ChunkedStream(bytes(crlf), chunk)));
+		}
+	}
+
+	@Test
+	public void readsLinesAcrossTheBuffer() throws IOException {
+		StringBuilder mappings = new StringBuilder();
+		List<String> entries = new ArrayList<>();
+
+		// Far larger than the buffer, with lines of changing length crossing its end
+		for(int i = 0; i < 20000; i++) {
+			String official = "c" + i;
+			String mapped = "net/minecraft/Class" + i + (i % 7 == 0 ? "\u00e9" : "");
+			String lineBreak = i % 2 == 0 ? "\n" : "\r\n";
+
+			mappings.append(official).append(' ').append(mapped).append(lineBreak);
+			mappings.append("\tf field_").append(i).append("_f\n");
+
+			entries.add("class " + official + " " + mapped);
+			entries.add("field f field_" + i + "_f");
+		}
+
+		assertEquals(entries, read(stream(mappings.toString())));
+		assertEquals(entries, read(new ChunkedStream(bytes(mappings.toString()), 4093)));
+	}
+
+	@Test
+	public void readsLinesLongerThanTheBuffer() throws IOException {
+		char[] name = new char[200000];
+		Arrays.fill(name, 'x');
+		String mapped = "net/minecraft/" + new String(name);
+
+		List<String> entries = read(stream("a " + mapped + "\r\n\tb field_1_b\r\n"));
+
+		assertEquals(Arrays.asList("class a " + mapped, "field b field_1_b"), entries);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsMembersBeforeClasses() throws IOException {
+		read(stream("\tb field_1_b\n"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsMalformedLines() throws IOException {
+		read(stream("a net/minecraft/Foo extra\n"));
+	}
+
+	private static List<String> read(InputStream stream) throws IOException {
+		List<String> entries = new ArrayList<>();
+
+		Tsrg.read(stream, new Tsrg.Visitor() {
+			@Override
+			public void visitClass(String official, String mapped) {
+				entries.add("class " + official + " " + mapped);
+			}
+
+			@Override
+			public void visitField(String official, String mapped) {
+				entries.add("field " + official + " " + mapped);
+			}
+
+			@Override
+			public void visitMethod(String official, String description, String mapped) {
+				entries.add("method " + official + " " + description + " " + mapped);
+			}
+		});
+
+		return entries;
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static InputStream stream(String content) {
+		return new ByteArrayInputStream(bytes(content));
+	}
+
+	/**
+	 * Hands out at most a fixed amount of bytes per read, like a slow network stream
+	 */
+	private static class ChunkedStream extends ByteArrayInputStream {
+		private final int chunk;
+
+		ChunkedStream(byte[] content, int chunk) {
+			super(content);
+
+			this.chunk = chunk;
+		}
+
+		@Override
+		public synchronized int read(byte[] buffer, int offset, int length) {
+			return super.read(buffer, offset, Math.min(length, chunk));
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package net.coderbot.patchwork.tasking;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResultTaskTest {
+	private TaskScheduler scheduler;
+
+	@Before
+	public void startScheduler() {
+		scheduler = new TaskScheduler(2);
+		scheduler.start();
+	}
+
+	@After
+	public void stopScheduler() {
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void handsResultToDependents() throws Exception {
+		ResultTask<String> root = ResultTask.of(() -> "patch");
+		ResultTask<Integer> length = root.then(String::length);
+		ResultTask<String> both = root.then(value -> value + "work");
+
+		CompletableFuture<Integer> lengthFuture = length.toFuture();
+		CompletableFuture<String> bothFuture = both.toFuture();
+		root.now(scheduler);
+
+		assertEquals(Integer.valueOf(5), lengthFuture.get(5, TimeUnit.SECONDS));
+		assertEquals("patchwork", bothFuture.get(5, TimeUnit.SECONDS));
+		assertEquals("patch", root.getResult());
+	}
+
+	@Test
+	public void checkedExceptionsFailTheTask() throws Exception {
+		IOException error = new IOException("Unreadable");
+		ResultTask<String> root = ResultTask.of(() -> {
+			throw error;
+		});
+
+		CompletableFuture<String> future = root.toFuture();
+		root.now(scheduler);
+
+		Throwable cause = failure(future);
+		assertTrue(cause instanceof IllegalStateException);
+		assertSame(error, cause.getCause());
+		assertEquals(TaskState.FAILED, root.getState());
+	}
+
+	@Test
+	public void failuresReachDependents() throws Exception {
+		ResultTask<String> root = ResultTask.of(() -> {
+			throw new IllegalArgumentException("Broken");
+		});
+		ResultTask<Integer> dependent = root.then(String::length);
+
+		CompletableFuture<Integer> future = dependent.toFuture();
+		root.now(scheduler);
+
+		// The dependent never ran, so it has no error of its own
+		assertTrue(failure(future) instanceof IllegalStateException);
+		assertTrue(dependent.hasFailed());
+
+		try {
+			dependent.getResult();
+			fail("A failed task has no result");
+		} catch(IllegalStateException expected) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void takesValueOfFuture() throws Exception {
+		CompletableFuture<String> source = new CompletableFuture<>();
+		ResultTask<String> task = ResultTask.fromFuture(source, scheduler);
+		ResultTask<Integer> length = task.then(String::length);
+
+		CountDownLatch done = new CountDownLatch(1);
+		length.whenComplete((completed, taskScheduler) -> done.countDown());
+
+		source.complete("mods");
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(4), length.getResult());
+	}
+
+	@Test
+	public void failsWithFuture() throws Exception {
+		CompletableFuture<String> source = new CompletableFuture<>();
+		ResultTask<String> task = ResultTask.fromFuture(source, scheduler);
+
+		CompletableFuture<String> future = task.toFuture();
+
+		IOException error = new IOException("Missing");
+		source.completeExceptionally(error);
+
+		Throwable cause = failure(future);
+		assertTrue(cause instanceof IllegalStateException);
+		assertSame(error, cause.getCause());
+	}
+
+	private static Throwable failure(CompletableFuture<?> future)
+			throws InterruptedException, TimeoutException {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+		} catch(ExecutionException e) {
+			return e.getCause();
+		}
+
+		throw new AssertionError("The future completed normally");
+	}
+}
@@ -0,0 +1,145 @@
+package net.coderbot.patchwork.tasking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TaskSchedulerTest {
+	private TaskScheduler scheduler;
+
+	@After
+	public void stopScheduler() {
+		if(scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void runsTasksAfterTheirDependencies() throws InterruptedException {
+		scheduler = new TaskScheduler(4);
+		scheduler.start();
+
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		RunnableTask root = new RunnableTask(() -> order.add("root"));
+		AtomicInteger middle = new AtomicInteger();
+		Task[] middles = new Task[100];
+
+		for(int i = 0; i < middles.length; i++) {
+			middles[i] = new RunnableTask(() -> {
+				middle.incrementAndGet();
+				order.add("middle");
+			});
+			middles[i].after(root);
+		}
+
+		RunnableTask join = new RunnableTask(() -> order.add("join"));
+		join.after(middles);
+
+		CountDownLatch done = completion(join);
+		root.now(scheduler);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(TaskState.SUCCEEDED, join.getState());
+		assertEquals(middles.length, middle.get());
+		assertEquals(middles.length + 2, order.size());
+		assertEquals("root", order.get(0));
+		assertEquals("join", order.get(order.size() - 1));
+	}
+
+	@Test
+	public void failurePropagatesToAllDependents() throws InterruptedException {
+		scheduler = new TaskScheduler(2);
+		scheduler.start();
+
+		RunnableTask failing = new RunnableTask(() -> {
+			throw new IllegalStateException("Task failure");
+		});
+		AtomicInteger ran = new AtomicInteger();
+		RunnableTask dependent = new RunnableTask(ran::incrementAndGet);
+		dependent.after(failing);
+		RunnableTask transitive = new RunnableTask(ran::incrementAndGet);
+		transitive.after(dependent);
+
+		CountDownLatch done = completion(transitive);
+		failing.now(scheduler);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(FailReason.ERROR, failing.getFailReason());
+		assertEquals("Task failure", failing.getError().getMessage());
+		assertEquals(FailReason.DEPENDENCY_FAILED, dependent.getFailReason());
+		assertEquals(FailReason.DEPENDENCY_FAILED, transitive.getFailReason());
+		assertEquals(TaskState.FAILED, transitive.getState());
+		assertEquals(0, ran.get());
+	}
+
+	@Test
+	public void propagatesPriorityToDependencies() {
+		RunnableTask first = new RunnableTask(() -> {});
+		RunnableTask second = new RunnableTask(() -> {});
+		RunnableTask third = new RunnableTask(() -> {});
+		third.setCost(5);
+		third.after(second);
+		second.after(first);
+		second.setCost(3);
+
+		assertEquals(9, first.getPriority());
+		assertEquals(8, second.getPriority());
+		assertEquals(5, third.getPriority());
+	}
+
+	@Test
+	public void runsQueuedTasksByPriority() throws InterruptedException {
+		scheduler = new TaskScheduler(1);
+		scheduler.start();
+
+		// Keep the only thread busy until every task is queued
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		new RunnableTask(() -> {
+			started.countDown();
+
+			try {
+				gate.await();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}).now(scheduler);
+
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		long[] costs = {3, 10, 1, 7, 7};
+		String[] names = {"3", "10", "1", "7a", "7b"};
+		CountDownLatch done = new CountDownLatch(costs.length);
+
+		for(int i = 0; i < costs.length; i++) {
+			String name = names[i];
+			RunnableTask task = new RunnableTask(() -> order.add(name));
+			task.setCost(costs[i]);
+			task.whenComplete((completed, scheduler) -> done.countDown());
+			task.now(scheduler);
+		}
+
+		gate.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("10", "7a", "7b", "3", "1"), order);
+	}
+
+	private static CountDownLatch completion(Task task) {
+		CountDownLatch latch = new CountDownLatch(1);
+		task.whenComplete((completed, scheduler) -> latch.countDown());
+
+		return latch;
+	}
+}
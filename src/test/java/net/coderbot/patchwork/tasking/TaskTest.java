@@ -0,0 +1,76 @@
+package net.coderbot.patchwork.tasking;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskTest {
+	private TaskScheduler scheduler;
+
+	@Before
+	public void startScheduler() {
+		scheduler = new TaskScheduler(2);
+		scheduler.start();
+	}
+
+	@After
+	public void stopScheduler() {
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void throwingCallbackStillRunsDependents() throws InterruptedException {
+		RunnableTask root = new RunnableTask(() -> {});
+		root.whenComplete((task, scheduler) -> {
+			throw new RuntimeException("Callback failure");
+		});
+
+		AtomicBoolean ran = new AtomicBoolean();
+		RunnableTask dependent = new RunnableTask(() -> ran.set(true));
+		dependent.after(root);
+
+		CountDownLatch done = completion(dependent);
+		root.now(scheduler);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(TaskState.SUCCEEDED, dependent.getState());
+		assertTrue(ran.get());
+	}
+
+	@Test
+	public void throwingCallbackStillFailsDependents() throws InterruptedException {
+		RunnableTask root = new RunnableTask(() -> {
+			throw new RuntimeException("Task failure");
+		});
+		root.whenComplete((task, scheduler) -> {
+			throw new RuntimeException("Callback failure");
+		});
+
+		AtomicBoolean ran = new AtomicBoolean();
+		RunnableTask dependent = new RunnableTask(() -> ran.set(true));
+		dependent.after(root);
+
+		CountDownLatch done = completion(dependent);
+		root.now(scheduler);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(FailReason.ERROR, root.getFailReason());
+		assertEquals(FailReason.DEPENDENCY_FAILED, dependent.getFailReason());
+		assertFalse(ran.get());
+	}
+
+	private static CountDownLatch completion(Task task) {
+		CountDownLatch latch = new CountDownLatch(1);
+		task.whenComplete((completed, scheduler) -> latch.countDown());
+
+		return latch;
+	}
+}